@@ -1,5 +1,6 @@
 package org.apache.brooklyn.cloudfoundry.entity;
 
+import java.util.List;
 import java.util.Map;
 
 import org.apache.brooklyn.api.entity.ImplementedBy;
@@ -11,7 +12,7 @@ import org.apache.brooklyn.entity.software.base.SoftwareProcess;
 import org.apache.brooklyn.util.core.flags.SetFromFlag;
 
 @ImplementedBy(CloudFoundryAppFromManifestImpl.class)
-public interface CloudFoundryAppFromManifest extends SoftwareProcess {
+public interface CloudFoundryAppFromManifest extends SoftwareProcess, CloudFoundryInstanceStatistics, CloudFoundryHealthCheck {
 
     @SetFromFlag("cfManifestContents")
     ConfigKey<String> CONFIGURATION_CONTENTS = ConfigKeys.newStringConfigKey(
@@ -25,6 +26,9 @@ public interface CloudFoundryAppFromManifest extends SoftwareProcess {
             .description("URL of the manifest file that will pushed to CloudFoundry.")
             .build();
 
+    @SetFromFlag("excludes")
+    ConfigKey<List<String>> ARTIFACT_EXCLUDES = VanillaCloudFoundryApplication.ARTIFACT_EXCLUDES;
+
     @SuppressWarnings({ "rawtypes", "unchecked" })
     AttributeSensor<Map<String, Object>> STATE = new BasicAttributeSensor(Map.class, "tf.state",
             "A map constructed from the state file on disk which contains the state of all managed infrastructure.");
@@ -6,21 +6,17 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.brooklyn.entity.software.base.EmptySoftwareProcessImpl;
 import org.apache.brooklyn.feed.function.FunctionFeed;
-import org.apache.brooklyn.feed.http.HttpFeed;
-import org.apache.brooklyn.feed.ssh.SshFeed;
-import org.apache.brooklyn.util.text.Strings;
-import org.apache.brooklyn.util.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Maps;
 
 public class CloudFoundryAppFromManifestImpl extends EmptySoftwareProcessImpl implements CloudFoundryAppFromManifest {
 
-    private static final Duration FEED_UPDATE_PERIOD = Duration.seconds(30);
-
-    private SshFeed sshFeed;
-    private HttpFeed httpFeed;
+    private static final Logger LOG = LoggerFactory.getLogger(CloudFoundryAppFromManifestImpl.class);
 
     private FunctionFeed functionFeed;
+    private FunctionFeed healthFeed;
 
     private Map<String, Object> lastCommandOutputs = Collections.synchronizedMap(Maps.<String, Object>newHashMapWithExpectedSize(3));
 
@@ -32,14 +28,11 @@ public class CloudFoundryAppFromManifestImpl extends EmptySoftwareProcessImpl im
         checkConfiguration();
     }
 
+    /**
+     * Reads and parses the manifest, so that an invalid one is reported here rather than when deploying.
+     */
     private void checkConfiguration() {
-        String configurationUrl = getConfig(CONFIGURATION_URL);
-        String configurationContents = getConfig(CONFIGURATION_CONTENTS);
-
-        // Exactly one of the two must have a value
-        if (Strings.isBlank(configurationUrl) == Strings.isBlank(configurationContents))
-            throw new IllegalArgumentException("Exactly one of the two must have a value: '"
-                    + CONFIGURATION_URL.getName() + "' or '" + CONFIGURATION_CONTENTS.getName() + "'.");
+        ManifestCache.INSTANCE.get(this);
     }
 
     @Override
@@ -48,20 +41,25 @@ public class CloudFoundryAppFromManifestImpl extends EmptySoftwareProcessImpl im
         configurationChangeInProgress = new AtomicBoolean(false);
 
         super.rebind();
+        try {
+            ManifestCache.INSTANCE.get(this);
+        } catch (RuntimeException e) {
+            LOG.warn("Cannot read the manifest of " + this + " on rebind", e);
+        }
+        CloudFoundryEntities.reconnect(this);
     }
 
     @Override
     protected void connectSensors() {
         super.connectSensors();
-        connectServiceUpIsRunning();
+        functionFeed = InstanceStatisticsFeed.create(this);
+        healthFeed = HealthFeed.create(this);
     }
 
     @Override
     protected void disconnectSensors() {
-        disconnectServiceUpIsRunning();
-
-        if (sshFeed != null) sshFeed.stop();
         if (functionFeed != null) functionFeed.stop();
+        if (healthFeed != null) healthFeed.stop();
 
         super.disconnectSensors();
     }
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.entity;
+
+import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.api.location.MachineLocation;
+import org.apache.brooklyn.api.location.MachineProvisioningLocation;
+import org.apache.brooklyn.cloudfoundry.location.CloudFoundryLocation;
+import org.apache.brooklyn.core.location.Machines;
+import org.apache.brooklyn.entity.software.base.SoftwareProcess;
+import org.apache.brooklyn.util.guava.Maybe;
+
+/**
+ * Looks up where a CloudFoundry application entity is deployed.
+ */
+public final class CloudFoundryEntities {
+
+    private CloudFoundryEntities() {
+    }
+
+    public static CloudFoundryLocation getCloudFoundryLocation(Entity entity) {
+        MachineProvisioningLocation<?> location = entity.sensors().get(SoftwareProcess.PROVISIONING_LOCATION);
+        if (!(location instanceof CloudFoundryLocation)) {
+            throw new IllegalStateException("Application " + entity + " is not deployed on a CloudFoundry location: " + location);
+        }
+        return (CloudFoundryLocation) location;
+    }
+
+    public static MachineLocation getMachine(Entity entity) {
+        MachineLocation machine = Machines.findUniqueMachineLocation(entity.getLocations()).orNull();
+        if (machine == null) {
+            throw new IllegalStateException("Application " + entity + " is not running");
+        }
+        return machine;
+    }
+
+    /**
+     * On rebind, has the location of the entity publish its sensors again, if it is deployed.
+     */
+    public static void reconnect(Entity entity) {
+        MachineProvisioningLocation<?> location = entity.sensors().get(SoftwareProcess.PROVISIONING_LOCATION);
+        Maybe<MachineLocation> machine = Machines.findUniqueMachineLocation(entity.getLocations());
+        if (location instanceof CloudFoundryLocation && machine.isPresent()) {
+            ((CloudFoundryLocation) location).reconnect(machine.get(), entity);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.entity;
+
+import org.apache.brooklyn.api.sensor.AttributeSensor;
+import org.apache.brooklyn.config.ConfigKey;
+import org.apache.brooklyn.core.config.ConfigKeys;
+import org.apache.brooklyn.core.sensor.Sensors;
+import org.apache.brooklyn.util.time.Duration;
+
+/**
+ * Health of a CloudFoundry application, derived without ssh from the state of its instances
+ * as reported by the platform and, optionally, from an HTTP probe of its url.
+ */
+public interface CloudFoundryHealthCheck {
+
+    ConfigKey<Duration> HEALTH_CHECK_PERIOD = ConfigKeys.newConfigKey(Duration.class,
+            "cloudFoundry.health.period", "Period for updating the health of the application", Duration.seconds(10));
+
+    ConfigKey<Boolean> HTTP_PROBE_ENABLED = ConfigKeys.newBooleanConfigKey(
+            "cloudFoundry.health.httpProbe", "Whether the application is only up if its url answers with " +
+                    "a 2xx or 3xx status, besides having running instances", false);
+
+    ConfigKey<String> HTTP_PROBE_PATH = ConfigKeys.newStringConfigKey(
+            "cloudFoundry.health.httpProbe.path", "Path of the url of the application which is probed", "/");
+
+    ConfigKey<Duration> HTTP_PROBE_TIMEOUT = ConfigKeys.newConfigKey(Duration.class,
+            "cloudFoundry.health.httpProbe.timeout", "Timeout for connecting to the application and for " +
+                    "reading its answer to the probe", Duration.seconds(5));
+
+    AttributeSensor<Integer> RUNNING_INSTANCES = Sensors.newIntegerSensor(
+            "cloudfoundry.application.runningInstances", "Number of instances of the application which are running");
+
+    AttributeSensor<Boolean> HTTP_PROBE_UP = Sensors.newBooleanSensor(
+            "cloudfoundry.application.httpProbe.up", "Whether the url of the application answered the last probe");
+
+}
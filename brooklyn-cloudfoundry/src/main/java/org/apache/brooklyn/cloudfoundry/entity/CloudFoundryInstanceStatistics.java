@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.entity;
+
+import java.util.Map;
+
+import org.apache.brooklyn.api.sensor.AttributeSensor;
+import org.apache.brooklyn.config.ConfigKey;
+import org.apache.brooklyn.core.config.ConfigKeys;
+import org.apache.brooklyn.core.sensor.Sensors;
+import org.apache.brooklyn.util.time.Duration;
+
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Usage statistics of the running instances of a CloudFoundry application: the last values of
+ * each instance, by instance index, and the mean, 95th percentile and maximum over all the
+ * instances in the last {@link #STATISTICS_WINDOW}.
+ */
+public interface CloudFoundryInstanceStatistics {
+
+    ConfigKey<Duration> STATISTICS_PERIOD = ConfigKeys.newConfigKey(Duration.class,
+            "cloudFoundry.statistics.period", "Period for polling the statistics of the instances", Duration.seconds(30));
+
+    ConfigKey<Duration> STATISTICS_WINDOW = ConfigKeys.newConfigKey(Duration.class,
+            "cloudFoundry.statistics.window", "Window over which the mean, 95th percentile and maximum of the " +
+                    "statistics are computed", Duration.minutes(5));
+
+    AttributeSensor<Map<String, Double>> INSTANCE_CPU = Sensors.newSensor(new TypeToken<Map<String, Double>>() {},
+            "cloudfoundry.application.instances.cpu", "CPU usage (fraction of a core) of each instance");
+
+    AttributeSensor<Map<String, Long>> INSTANCE_MEMORY = Sensors.newSensor(new TypeToken<Map<String, Long>>() {},
+            "cloudfoundry.application.instances.memory", "Memory usage (bytes) of each instance");
+
+    AttributeSensor<Map<String, Long>> INSTANCE_DISK = Sensors.newSensor(new TypeToken<Map<String, Long>>() {},
+            "cloudfoundry.application.instances.disk", "Disk usage (bytes) of each instance");
+
+    AttributeSensor<Double> CPU_MEAN = Sensors.newDoubleSensor(
+            "cloudfoundry.application.cpu.mean", "Mean CPU usage of the instances over the statistics window");
+
+    AttributeSensor<Double> CPU_P95 = Sensors.newDoubleSensor(
+            "cloudfoundry.application.cpu.p95", "95th percentile of the CPU usage of the instances over the statistics window");
+
+    AttributeSensor<Double> CPU_MAX = Sensors.newDoubleSensor(
+            "cloudfoundry.application.cpu.max", "Maximum CPU usage of the instances over the statistics window");
+
+    AttributeSensor<Double> MEMORY_MEAN = Sensors.newDoubleSensor(
+            "cloudfoundry.application.memory.mean", "Mean memory usage (bytes) of the instances over the statistics window");
+
+    AttributeSensor<Double> MEMORY_P95 = Sensors.newDoubleSensor(
+            "cloudfoundry.application.memory.p95", "95th percentile of the memory usage (bytes) of the instances over the statistics window");
+
+    AttributeSensor<Double> MEMORY_MAX = Sensors.newDoubleSensor(
+            "cloudfoundry.application.memory.max", "Maximum memory usage (bytes) of the instances over the statistics window");
+
+    AttributeSensor<Double> DISK_MEAN = Sensors.newDoubleSensor(
+            "cloudfoundry.application.disk.mean", "Mean disk usage (bytes) of the instances over the statistics window");
+
+    AttributeSensor<Double> DISK_P95 = Sensors.newDoubleSensor(
+            "cloudfoundry.application.disk.p95", "95th percentile of the disk usage (bytes) of the instances over the statistics window");
+
+    AttributeSensor<Double> DISK_MAX = Sensors.newDoubleSensor(
+            "cloudfoundry.application.disk.max", "Maximum disk usage (bytes) of the instances over the statistics window");
+
+}
@@ -0,0 +1,317 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.entity;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.brooklyn.util.yaml.Yamls;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * A parsed CloudFoundry application manifest: either a single application, whose attributes are
+ * at the top level, or a list of {@code applications} which inherit the top-level attributes.
+ * Besides the usual attributes, an application can list the applications it {@code depends-on},
+ * which are then deployed before it.
+ *
+ * @see ManifestCache
+ */
+public class CloudFoundryManifest {
+
+    static final int DEFAULT_MEMORY = 256;
+    static final int DEFAULT_DISK_QUOTA = 512;
+    static final int DEFAULT_INSTANCES = 1;
+
+    public static final List<String> HEALTH_CHECK_TYPES = ImmutableList.of("port", "process", "none");
+
+    private static final Pattern SIZE = Pattern.compile("(\\d+)\\s*([MG])B?", Pattern.CASE_INSENSITIVE);
+
+    private final List<ApplicationManifest> applications;
+    private final List<ApplicationManifest> deploymentOrder;
+
+    /**
+     * @throws IllegalArgumentException if the yaml is not a valid manifest
+     */
+    public static CloudFoundryManifest parse(String yaml) {
+        Map<?, ?> document;
+        try {
+            document = Yamls.getAs(Yamls.parseAll(yaml), Map.class);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid manifest: " + e.getMessage(), e);
+        }
+        if (document == null) {
+            throw new IllegalArgumentException("Invalid manifest: empty document");
+        }
+        Object applications = document.get("applications");
+        if (applications == null) {
+            return new CloudFoundryManifest(ImmutableList.of(ApplicationManifest.parse(document)));
+        } else if (!(applications instanceof List) || ((List<?>) applications).isEmpty()) {
+            throw new IllegalArgumentException("Invalid manifest: applications is not a non-empty list");
+        }
+        // the other top-level attributes are defaults of all the applications
+        Map<Object, Object> defaults = Maps.newLinkedHashMap(document);
+        defaults.remove("applications");
+        ImmutableList.Builder<ApplicationManifest> result = ImmutableList.builder();
+        for (Object application : (List<?>) applications) {
+            if (!(application instanceof Map)) {
+                throw new IllegalArgumentException("Invalid manifest: application '" + application + "' is not a map");
+            }
+            Map<Object, Object> attributes = Maps.newLinkedHashMap(defaults);
+            attributes.putAll((Map<?, ?>) application);
+            if (defaults.get("env") instanceof Map && ((Map<?, ?>) application).get("env") instanceof Map) {
+                Map<Object, Object> env = Maps.newLinkedHashMap((Map<?, ?>) defaults.get("env"));
+                env.putAll((Map<?, ?>) ((Map<?, ?>) application).get("env"));
+                attributes.put("env", env);
+            }
+            result.add(ApplicationManifest.parse(attributes));
+        }
+        return new CloudFoundryManifest(result.build());
+    }
+
+    private CloudFoundryManifest(List<ApplicationManifest> applications) {
+        this.applications = applications;
+        this.deploymentOrder = sortByDependencies(applications);
+    }
+
+    /**
+     * The applications, in the order of the manifest.
+     */
+    public List<ApplicationManifest> getApplications() {
+        return applications;
+    }
+
+    /**
+     * The applications, each one after the ones it {@link ApplicationManifest#getDependsOn() depends on}.
+     */
+    public List<ApplicationManifest> getDeploymentOrder() {
+        return deploymentOrder;
+    }
+
+    private static List<ApplicationManifest> sortByDependencies(List<ApplicationManifest> applications) {
+        Map<String, ApplicationManifest> byName = Maps.newLinkedHashMap();
+        for (ApplicationManifest application : applications) {
+            if (byName.put(application.getName(), application) != null) {
+                throw new IllegalArgumentException("Invalid manifest: application " + application.getName() + " is defined twice");
+            }
+        }
+        for (ApplicationManifest application : applications) {
+            for (String dependency : application.getDependsOn()) {
+                if (!byName.containsKey(dependency)) {
+                    throw new IllegalArgumentException("Invalid manifest: application " + application.getName()
+                            + " depends on unknown application " + dependency);
+                }
+            }
+        }
+        Set<String> sorted = Sets.newLinkedHashSet();
+        Set<String> visiting = Sets.newHashSet();
+        for (ApplicationManifest application : applications) {
+            visit(application, byName, sorted, visiting);
+        }
+        ImmutableList.Builder<ApplicationManifest> result = ImmutableList.builder();
+        for (String name : sorted) {
+            result.add(byName.get(name));
+        }
+        return result.build();
+    }
+
+    private static void visit(ApplicationManifest application, Map<String, ApplicationManifest> byName, Set<String> sorted, Set<String> visiting) {
+        if (sorted.contains(application.getName())) return;
+        if (!visiting.add(application.getName())) {
+            throw new IllegalArgumentException("Invalid manifest: application " + application.getName() + " is part of a dependency cycle");
+        }
+        for (String dependency : application.getDependsOn()) {
+            visit(byName.get(dependency), byName, sorted, visiting);
+        }
+        visiting.remove(application.getName());
+        sorted.add(application.getName());
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this).add("applications", applications).toString();
+    }
+
+    /**
+     * Memory and disk sizes are either a number of megabytes or a string such as {@code 512M} or {@code 1G}.
+     */
+    static Integer parseSize(Object value, String attribute) {
+        if (value == null) return null;
+        if (value instanceof Number) return ((Number) value).intValue();
+        Matcher matcher = SIZE.matcher(value.toString().trim());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid manifest: " + attribute + " '" + value + "' is not a size such as 512M or 1G");
+        }
+        int size = Integer.parseInt(matcher.group(1));
+        return matcher.group(2).equalsIgnoreCase("G") ? size * 1024 : size;
+    }
+
+    public static class ApplicationManifest {
+        private final String name;
+        private final String path;
+        private final String buildpack;
+        private final int memory;
+        private final int diskQuota;
+        private final int instances;
+        private final String domain;
+        private final Map<String, String> env;
+        private final List<String> services;
+        private final List<String> dependsOn;
+        private final String healthCheckType;
+
+        private ApplicationManifest(String name, String path, String buildpack, int memory, int diskQuota, int instances,
+                String domain, Map<String, String> env, List<String> services, List<String> dependsOn,
+                String healthCheckType) {
+            this.name = name;
+            this.path = path;
+            this.buildpack = buildpack;
+            this.memory = memory;
+            this.diskQuota = diskQuota;
+            this.instances = instances;
+            this.domain = domain;
+            this.env = env;
+            this.services = services;
+            this.dependsOn = dependsOn;
+            this.healthCheckType = healthCheckType;
+        }
+
+        static ApplicationManifest parse(Map<?, ?> attributes) {
+            Object name = attributes.get("name");
+            if (name == null) {
+                throw new IllegalArgumentException("Invalid manifest: application has no name");
+            }
+            Object instances = attributes.get("instances");
+            if (instances != null && !(instances instanceof Number)) {
+                throw new IllegalArgumentException("Invalid manifest: instances '" + instances + "' of " + name + " is not a number");
+            }
+            Object diskQuota = attributes.containsKey("disk_quota") ? attributes.get("disk_quota") : attributes.get("disk");
+            String healthCheckType = getString(attributes, "health-check-type");
+            if (healthCheckType != null && !HEALTH_CHECK_TYPES.contains(healthCheckType)) {
+                throw new IllegalArgumentException("Invalid manifest: health-check-type '" + healthCheckType + "' of " + name
+                        + " is not one of " + HEALTH_CHECK_TYPES);
+            }
+            return new ApplicationManifest(
+                    name.toString(),
+                    getString(attributes, "path"),
+                    getString(attributes, "buildpack"),
+                    MoreObjects.firstNonNull(parseSize(attributes.get("memory"), "memory"), DEFAULT_MEMORY),
+                    MoreObjects.firstNonNull(parseSize(diskQuota, "disk_quota"), DEFAULT_DISK_QUOTA),
+                    instances != null ? ((Number) instances).intValue() : DEFAULT_INSTANCES,
+                    getString(attributes, "domain"),
+                    getEnv(attributes.get("env"), name),
+                    getList(attributes.get("services"), "services", name),
+                    getList(attributes.get("depends-on"), "depends-on", name),
+                    healthCheckType);
+        }
+
+        private static String getString(Map<?, ?> attributes, String key) {
+            Object value = attributes.get(key);
+            return value != null ? value.toString() : null;
+        }
+
+        private static Map<String, String> getEnv(Object env, Object name) {
+            if (env == null) return ImmutableMap.of();
+            if (!(env instanceof Map)) {
+                throw new IllegalArgumentException("Invalid manifest: env of " + name + " is not a map");
+            }
+            ImmutableMap.Builder<String, String> result = ImmutableMap.builder();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) env).entrySet()) {
+                result.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+            }
+            return result.build();
+        }
+
+        private static List<String> getList(Object values, String attribute, Object name) {
+            if (values == null) return ImmutableList.of();
+            if (!(values instanceof List)) {
+                throw new IllegalArgumentException("Invalid manifest: " + attribute + " of " + name + " is not a list");
+            }
+            ImmutableList.Builder<String> result = ImmutableList.builder();
+            for (Object value : (List<?>) values) {
+                result.add(String.valueOf(value));
+            }
+            return result.build();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public String getBuildpack() {
+            return buildpack;
+        }
+
+        /** In megabytes. */
+        public int getMemory() {
+            return memory;
+        }
+
+        /** In megabytes. */
+        public int getDiskQuota() {
+            return diskQuota;
+        }
+
+        public int getInstances() {
+            return instances;
+        }
+
+        public String getDomain() {
+            return domain;
+        }
+
+        public Map<String, String> getEnv() {
+            return env;
+        }
+
+        public List<String> getServices() {
+            return services;
+        }
+
+        /** One of {@link CloudFoundryManifest#HEALTH_CHECK_TYPES}, or null for the platform default. */
+        public String getHealthCheckType() {
+            return healthCheckType;
+        }
+
+        /** Names of the applications of the manifest to deploy before this one. */
+        public List<String> getDependsOn() {
+            return dependsOn;
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this).omitNullValues()
+                    .add("name", name).add("path", path).add("buildpack", buildpack)
+                    .add("memory", memory).add("diskQuota", diskQuota).add("instances", instances)
+                    .add("domain", domain).add("services", services).add("dependsOn", dependsOn)
+                    .add("healthCheckType", healthCheckType)
+                    .toString();
+        }
+    }
+}
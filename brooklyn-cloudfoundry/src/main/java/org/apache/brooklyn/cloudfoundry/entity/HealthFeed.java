@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.entity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.core.entity.Attributes;
+import org.apache.brooklyn.feed.function.FunctionFeed;
+import org.apache.brooklyn.feed.function.FunctionPollConfig;
+import org.apache.brooklyn.util.os.Os;
+import org.apache.brooklyn.util.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Functions;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Derives {@link Attributes#SERVICE_UP} of an application entity from its
+ * {@link CloudFoundryHealthCheck#RUNNING_INSTANCES}, which the location polls for all the
+ * applications of the space at once, and, if enabled, from an HTTP probe of its
+ * {@link VanillaCloudFoundryApplication#ROOT_URL}. No ssh session is opened, and probes reuse
+ * the JVM's kept-alive connections.
+ */
+class HealthFeed {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HealthFeed.class);
+
+    private final Entity entity;
+
+    private HealthFeed(Entity entity) {
+        this.entity = entity;
+    }
+
+    static FunctionFeed create(Entity entity) {
+        final HealthFeed feed = new HealthFeed(entity);
+        return FunctionFeed.builder()
+                .entity(entity)
+                .period(entity.config().get(CloudFoundryHealthCheck.HEALTH_CHECK_PERIOD))
+                .poll(new FunctionPollConfig<Boolean, Boolean>(Attributes.SERVICE_UP)
+                        .callable(feed::isUp)
+                        .onFailureOrException(Functions.constant(false)))
+                .build();
+    }
+
+    private Boolean isUp() {
+        Integer running = entity.sensors().get(CloudFoundryHealthCheck.RUNNING_INSTANCES);
+        if (running == null || running == 0) {
+            return false;
+        }
+        if (!entity.config().get(CloudFoundryHealthCheck.HTTP_PROBE_ENABLED)) {
+            return true;
+        }
+        String url = entity.sensors().get(VanillaCloudFoundryApplication.ROOT_URL);
+        boolean up = url != null && probe(Os.mergePaths(url, entity.config().get(CloudFoundryHealthCheck.HTTP_PROBE_PATH)),
+                entity.config().get(CloudFoundryHealthCheck.HTTP_PROBE_TIMEOUT));
+        entity.sensors().set(CloudFoundryHealthCheck.HTTP_PROBE_UP, up);
+        return up;
+    }
+
+    /**
+     * Whether the url answers with a 2xx or 3xx status; the router answers 404 for an application
+     * without running instances.
+     */
+    static boolean probe(String url, Duration timeout) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout((int) timeout.toMilliseconds());
+            connection.setReadTimeout((int) timeout.toMilliseconds());
+            connection.setInstanceFollowRedirects(false);
+            int status = connection.getResponseCode();
+            // the body is read to the end so that the connection goes back to the keep-alive cache
+            InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (body != null) {
+                try (InputStream in = body) {
+                    ByteStreams.exhaust(in);
+                }
+            }
+            return status >= 200 && status < 400;
+        } catch (IOException e) {
+            LOG.debug("Probe of " + url + " failed", e);
+            return false;
+        }
+    }
+}
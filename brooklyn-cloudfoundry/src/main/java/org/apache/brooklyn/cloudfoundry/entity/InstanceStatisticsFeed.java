@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.entity;
+
+import java.util.Map;
+
+import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.api.sensor.AttributeSensor;
+import org.apache.brooklyn.feed.function.FunctionFeed;
+import org.apache.brooklyn.feed.function.FunctionPollConfig;
+import org.apache.brooklyn.util.collections.MutableMap;
+import org.apache.brooklyn.util.time.Duration;
+import org.cloudfoundry.client.v2.applications.InstanceStatistics;
+import org.cloudfoundry.client.v2.applications.Statistics;
+import org.cloudfoundry.client.v2.applications.Usage;
+
+import com.google.common.base.Functions;
+
+/**
+ * Polls the statistics of the instances of an application and publishes the
+ * {@link CloudFoundryInstanceStatistics} sensors of its entity.
+ */
+class InstanceStatisticsFeed {
+
+    /** Samples kept per metric at first; grown as needed to hold every sample of the window. */
+    static final int INITIAL_WINDOW_CAPACITY = 1024;
+
+    private final Entity entity;
+    private final RollingWindow cpu;
+    private final RollingWindow memory;
+    private final RollingWindow disk;
+
+    private InstanceStatisticsFeed(Entity entity, Duration window) {
+        this.entity = entity;
+        this.cpu = new RollingWindow(window, INITIAL_WINDOW_CAPACITY);
+        this.memory = new RollingWindow(window, INITIAL_WINDOW_CAPACITY);
+        this.disk = new RollingWindow(window, INITIAL_WINDOW_CAPACITY);
+    }
+
+    static FunctionFeed create(Entity entity) {
+        final InstanceStatisticsFeed feed = new InstanceStatisticsFeed(entity,
+                entity.config().get(CloudFoundryInstanceStatistics.STATISTICS_WINDOW));
+        return FunctionFeed.builder()
+                .entity(entity)
+                .period(entity.config().get(CloudFoundryInstanceStatistics.STATISTICS_PERIOD))
+                .poll(new FunctionPollConfig<Map<String, Double>, Map<String, Double>>(CloudFoundryInstanceStatistics.INSTANCE_CPU)
+                        .callable(feed::poll)
+                        .onFailureOrException(Functions.<Map<String, Double>>constant(null)))
+                .build();
+    }
+
+    /**
+     * Publishes the memory and disk sensors and returns the CPU usage of each instance.
+     */
+    private Map<String, Double> poll() {
+        Map<String, InstanceStatistics> instances = CloudFoundryEntities.getCloudFoundryLocation(entity)
+                .getInstanceStatistics(CloudFoundryEntities.getMachine(entity))
+                .block();
+        long now = System.currentTimeMillis();
+        Map<String, Double> instanceCpu = MutableMap.of();
+        Map<String, Long> instanceMemory = MutableMap.of();
+        Map<String, Long> instanceDisk = MutableMap.of();
+        for (Map.Entry<String, InstanceStatistics> instance : instances.entrySet()) {
+            Statistics statistics = instance.getValue().getStatistics();
+            Usage usage = statistics != null ? statistics.getUsage() : null;
+            if (usage == null || usage.getCpu() == null || usage.getMemory() == null || usage.getDisk() == null) continue;
+            instanceCpu.put(instance.getKey(), usage.getCpu());
+            instanceMemory.put(instance.getKey(), usage.getMemory());
+            instanceDisk.put(instance.getKey(), usage.getDisk());
+            cpu.add(now, usage.getCpu());
+            memory.add(now, usage.getMemory());
+            disk.add(now, usage.getDisk());
+        }
+        entity.sensors().set(CloudFoundryInstanceStatistics.INSTANCE_MEMORY, instanceMemory);
+        entity.sensors().set(CloudFoundryInstanceStatistics.INSTANCE_DISK, instanceDisk);
+        publish(cpu.summarize(now), CloudFoundryInstanceStatistics.CPU_MEAN, CloudFoundryInstanceStatistics.CPU_P95,
+                CloudFoundryInstanceStatistics.CPU_MAX);
+        publish(memory.summarize(now), CloudFoundryInstanceStatistics.MEMORY_MEAN, CloudFoundryInstanceStatistics.MEMORY_P95,
+                CloudFoundryInstanceStatistics.MEMORY_MAX);
+        publish(disk.summarize(now), CloudFoundryInstanceStatistics.DISK_MEAN, CloudFoundryInstanceStatistics.DISK_P95,
+                CloudFoundryInstanceStatistics.DISK_MAX);
+        return instanceCpu;
+    }
+
+    private void publish(RollingWindow.Summary summary, AttributeSensor<Double> mean, AttributeSensor<Double> p95,
+            AttributeSensor<Double> max) {
+        if (summary == null) return;
+        entity.sensors().set(mean, summary.mean);
+        entity.sensors().set(p95, summary.p95);
+        entity.sensors().set(max, summary.max);
+    }
+}
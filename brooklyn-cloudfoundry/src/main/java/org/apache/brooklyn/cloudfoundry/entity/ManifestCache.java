@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.entity;
+
+import static org.apache.brooklyn.cloudfoundry.entity.CloudFoundryAppFromManifest.CONFIGURATION_CONTENTS;
+import static org.apache.brooklyn.cloudfoundry.entity.CloudFoundryAppFromManifest.CONFIGURATION_URL;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.util.core.ResourceUtils;
+import org.apache.brooklyn.util.text.Strings;
+import org.apache.brooklyn.util.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Parsed manifests of {@link CloudFoundryAppFromManifest} entities, shared by their validation,
+ * their deployment and their rebind: manifests given as contents are cached by content hash,
+ * and manifests given by URL are cached by URL and revalidated (conditionally, for http(s)
+ * URLs) once older than {@link #FRESHNESS}.
+ */
+public class ManifestCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ManifestCache.class);
+
+    public static final ManifestCache INSTANCE = new ManifestCache();
+
+    static final Duration FRESHNESS = Duration.ONE_MINUTE;
+    private static final int MAX_CACHED_MANIFESTS = 256;
+    private static final Duration CONNECT_TIMEOUT = Duration.seconds(10);
+    private static final Duration READ_TIMEOUT = Duration.seconds(30);
+
+    private final Cache<String, CloudFoundryManifest> byContentHash = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_MANIFESTS)
+            .build();
+    private final Cache<String, UrlEntry> byUrl = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED_MANIFESTS)
+            .build();
+
+    protected ManifestCache() {
+    }
+
+    /**
+     * The manifest of the entity, from its {@link CloudFoundryAppFromManifest#CONFIGURATION_URL url}
+     * or its {@link CloudFoundryAppFromManifest#CONFIGURATION_CONTENTS contents}.
+     *
+     * @throws IllegalArgumentException if the entity has neither or both, or if the manifest is invalid
+     */
+    public CloudFoundryManifest get(Entity entity) {
+        String configurationUrl = entity.config().get(CONFIGURATION_URL);
+        String configurationContents = entity.config().get(CONFIGURATION_CONTENTS);
+
+        // Exactly one of the two must have a value
+        if (Strings.isBlank(configurationUrl) == Strings.isBlank(configurationContents))
+            throw new IllegalArgumentException("Exactly one of the two must have a value: '"
+                    + CONFIGURATION_URL.getName() + "' or '" + CONFIGURATION_CONTENTS.getName() + "'.");
+
+        return Strings.isBlank(configurationUrl)
+                ? parse(configurationContents)
+                : get(configurationUrl, new ResourceUtils(entity));
+    }
+
+    CloudFoundryManifest parse(final String yaml) {
+        String hash = Hashing.sha256().hashString(yaml, Charsets.UTF_8).toString();
+        try {
+            return byContentHash.get(hash, () -> CloudFoundryManifest.parse(yaml));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private CloudFoundryManifest get(String url, ResourceUtils resources) {
+        UrlEntry entry = byUrl.getIfPresent(url);
+        if (entry != null && System.currentTimeMillis() - entry.validated < FRESHNESS.toMilliseconds()) {
+            return entry.manifest;
+        }
+        UrlEntry updated = (url.startsWith("http:") || url.startsWith("https:"))
+                ? fetchHttp(url, entry)
+                : new UrlEntry(parse(read(resources.getResourceFromUrl(url))), null, 0);
+        byUrl.put(url, updated);
+        return updated.manifest;
+    }
+
+    private UrlEntry fetchHttp(String url, UrlEntry cached) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout((int) CONNECT_TIMEOUT.toMilliseconds());
+            connection.setReadTimeout((int) READ_TIMEOUT.toMilliseconds());
+            try {
+                if (cached != null && cached.etag != null) {
+                    connection.setRequestProperty("If-None-Match", cached.etag);
+                }
+                if (cached != null && cached.lastModified > 0) {
+                    connection.setIfModifiedSince(cached.lastModified);
+                }
+                int status = connection.getResponseCode();
+                if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                    return new UrlEntry(cached.manifest, cached.etag, cached.lastModified);
+                } else if (status != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("HTTP " + status + " " + connection.getResponseMessage());
+                }
+                CloudFoundryManifest manifest = parse(read(connection.getInputStream()));
+                return new UrlEntry(manifest, connection.getHeaderField("ETag"), connection.getLastModified());
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            if (cached != null) {
+                LOG.warn("Cannot revalidate manifest " + url + ", using the cached copy", e);
+                return new UrlEntry(cached.manifest, cached.etag, cached.lastModified);
+            }
+            throw new IllegalArgumentException("Cannot read manifest " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static String read(InputStream in) {
+        try (InputStream stream = in) {
+            return new String(ByteStreams.toByteArray(stream), Charsets.UTF_8);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static final class UrlEntry {
+        final CloudFoundryManifest manifest;
+        final String etag;
+        final long lastModified;
+        final long validated = System.currentTimeMillis();
+
+        UrlEntry(CloudFoundryManifest manifest, String etag, long lastModified) {
+            this.manifest = manifest;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.entity;
+
+import java.util.Arrays;
+
+import org.apache.brooklyn.util.time.Duration;
+
+/**
+ * The last samples of a metric, within a time window, with their mean, 95th percentile and
+ * maximum. Samples are kept in arrays used as a ring, in the order they were added: the oldest
+ * sample is overwritten once it is out of the window, and the arrays are doubled when all the
+ * samples are still within it, so the summaries always cover the whole window.
+ */
+class RollingWindow {
+
+    private final long windowMillis;
+    private long[] times;
+    private double[] values;
+    private double[] sorted;
+    private int next;
+    private int size;
+
+    RollingWindow(Duration window, int initialCapacity) {
+        this.windowMillis = window.toMilliseconds();
+        this.times = new long[initialCapacity];
+        this.values = new double[initialCapacity];
+        this.sorted = new double[initialCapacity];
+    }
+
+    /**
+     * Adds a sample, which must not be older than the samples already added.
+     */
+    synchronized void add(long time, double value) {
+        if (size == values.length && times[next] >= time - windowMillis) {
+            grow();
+        }
+        times[next] = time;
+        values[next] = value;
+        next = (next + 1) % values.length;
+        size = Math.min(size + 1, values.length);
+    }
+
+    int capacity() {
+        return values.length;
+    }
+
+    /**
+     * Doubles the arrays, moving the samples to their start from the oldest one.
+     */
+    private void grow() {
+        int capacity = values.length * 2;
+        long[] grownTimes = new long[capacity];
+        double[] grownValues = new double[capacity];
+        int tail = size - next;
+        System.arraycopy(times, next, grownTimes, 0, tail);
+        System.arraycopy(times, 0, grownTimes, tail, next);
+        System.arraycopy(values, next, grownValues, 0, tail);
+        System.arraycopy(values, 0, grownValues, tail, next);
+        times = grownTimes;
+        values = grownValues;
+        sorted = new double[capacity];
+        next = size;
+    }
+
+    /**
+     * The summary of the samples taken since {@code now} minus the window, or null if there are none.
+     */
+    synchronized Summary summarize(long now) {
+        int count = 0;
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            if (times[i] >= now - windowMillis) {
+                sorted[count++] = values[i];
+                sum += values[i];
+            }
+        }
+        if (count == 0) return null;
+        Arrays.sort(sorted, 0, count);
+        // nearest rank
+        int p95 = (int) Math.ceil(0.95 * count) - 1;
+        return new Summary(sum / count, sorted[p95], sorted[count - 1]);
+    }
+
+    static final class Summary {
+        final double mean;
+        final double p95;
+        final double max;
+
+        Summary(double mean, double p95, double max) {
+            this.mean = mean;
+            this.p95 = p95;
+            this.max = max;
+        }
+    }
+}
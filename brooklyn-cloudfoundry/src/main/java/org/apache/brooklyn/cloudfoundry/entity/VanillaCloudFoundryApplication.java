@@ -25,6 +25,8 @@ import org.apache.brooklyn.api.catalog.Catalog;
 import org.apache.brooklyn.api.entity.ImplementedBy;
 import org.apache.brooklyn.api.sensor.AttributeSensor;
 import org.apache.brooklyn.config.ConfigKey;
+import org.apache.brooklyn.core.annotation.Effector;
+import org.apache.brooklyn.core.annotation.EffectorParam;
 import org.apache.brooklyn.core.config.ConfigKeys;
 import org.apache.brooklyn.core.sensor.BasicAttributeSensorAndConfigKey;
 import org.apache.brooklyn.core.sensor.Sensors;
@@ -36,7 +38,7 @@ import com.google.common.reflect.TypeToken;
 
 @Catalog(name = "Vanilla CloudFoundry Application entity")
 @ImplementedBy(VanillaCloudFoundryApplicationImpl.class)
-public interface VanillaCloudFoundryApplication extends SoftwareProcess {
+public interface VanillaCloudFoundryApplication extends SoftwareProcess, CloudFoundryInstanceStatistics, CloudFoundryHealthCheck {
 
     @SetFromFlag("nameApp")
     BasicAttributeSensorAndConfigKey<String> APPLICATION_NAME =
@@ -45,7 +47,17 @@ public interface VanillaCloudFoundryApplication extends SoftwareProcess {
 
     @SetFromFlag("path")
     ConfigKey<String> ARTIFACT_PATH = ConfigKeys.newStringConfigKey(
-            "cloudFoundry.application.artifact", "URI of the application");
+            "cloudFoundry.application.artifact", "URI of the application: a file, http(s), classpath " +
+                    "or mvn:groupId/artifactId/version[/type[/classifier]] URL");
+
+    @SetFromFlag("checksum")
+    ConfigKey<String> ARTIFACT_CHECKSUM = ConfigKeys.newStringConfigKey(
+            "cloudFoundry.application.artifact.checksum", "Expected SHA-1 or SHA-256 of the artifact, if it is to be verified");
+
+    @SetFromFlag("excludes")
+    ConfigKey<List<String>> ARTIFACT_EXCLUDES = ConfigKeys.newConfigKey(new TypeToken<List<String>>() {},
+            "cloudFoundry.application.artifact.excludes", "Files of the artifact not to upload, as .cfignore " +
+                    "patterns; they apply on top of the .cfignore of the artifact and the default ignored files");
 
     @SetFromFlag("buildpack")
     ConfigKey<String> BUILDPACK = ConfigKeys.newStringConfigKey(
@@ -82,6 +94,11 @@ public interface VanillaCloudFoundryApplication extends SoftwareProcess {
     ConfigKey<Integer> REQUIRED_DISK = ConfigKeys.newIntegerConfigKey(
             "cloudfoundry.profile.disk", "Disk size allocated for the application (MB)", 1024);
 
+    @SetFromFlag("healthCheckType")
+    ConfigKey<String> HEALTH_CHECK_TYPE = ConfigKeys.newStringConfigKey(
+            "cloudFoundry.application.healthCheck.type", "How the platform checks that an instance is healthy: " +
+                    "port, process or none; the application is ready once an instance is", "port");
+
     AttributeSensor<String> ROOT_URL =
             Sensors.newStringSensor("webapp.url", "URL of the application");
 
@@ -96,18 +113,33 @@ public interface VanillaCloudFoundryApplication extends SoftwareProcess {
     AttributeSensor<Integer> ALLOCATED_DISK =
             Sensors.newIntegerSensor("cloudfoundry.application.disk", "Application allocated disk (MB)");
 
-//    @Effector(description = "Set an environment variable that can be retrieved by the web application")
-//    public void setEnv(@EffectorParam(name = "name", description = "Name of the variable") String name,
-//                       @EffectorParam(name = "value", description = "Value of the environment variable") String value);
-//
-//    @Effector(description = "Set the desired number of instances that will be user by the web application")
-//    public void setInstancesNumber(@EffectorParam(name = "instancesNumber", description = "Number of " +
-//            "instance that are being used by the application") int instancesNumber);
-//
-//    @Effector(description = "Set the desired disk quota that will be allocated")
-//    public void setDiskQuota(@EffectorParam(name = "diskQuota", description = "Disk allocated" +
-//            " that will be used by the web application") int diskQuota);
-//
-//    @Effector(description = "Set the desired memory that will be allocated")
-//    public void setMemory(@EffectorParam(name = "memory", description = "Memory allocated") int memory);
+    @Effector(description = "Set an environment variable that can be retrieved by the web application; " +
+            "the instances are restarted in batches to see it")
+    public void setEnv(@EffectorParam(name = "name", description = "Name of the variable") String name,
+                       @EffectorParam(name = "value", description = "Value of the environment variable") String value);
+
+    @Effector(description = "Set the desired number of instances that will be user by the web application; " +
+            "the running instances are not restarted")
+    public void setInstancesNumber(@EffectorParam(name = "instancesNumber", description = "Number of " +
+            "instance that are being used by the application") int instancesNumber);
+
+    @Effector(description = "Set the desired disk quota that will be allocated; " +
+            "the instances are restarted in batches to apply it")
+    public void setDiskQuota(@EffectorParam(name = "diskQuota", description = "Disk allocated" +
+            " that will be used by the web application") int diskQuota);
+
+    @Effector(description = "Set the desired memory that will be allocated; " +
+            "the instances are restarted in batches to apply it")
+    public void setMemory(@EffectorParam(name = "memory", description = "Memory allocated") int memory);
+
+    @Effector(description = "Restart the instances of the application in batches, waiting for all the " +
+            "instances to be running again before restarting the next batch")
+    public void rollingRestart(@EffectorParam(name = "maxUnavailable", description = "Maximum number of instances " +
+            "restarted together; if not set the restart.maxUnavailable of the location is used", nullable = true)
+            Integer maxUnavailable);
+
+    @Effector(description = "Redeploy the application without downtime: the new version is started next to " +
+            "the running one and the routes are switched to it once it is healthy")
+    public void redeploy(@EffectorParam(name = "artifact", description = "Artifact of the new version; " +
+            "if not set the current artifact is pushed again", nullable = true) String artifact);
 }
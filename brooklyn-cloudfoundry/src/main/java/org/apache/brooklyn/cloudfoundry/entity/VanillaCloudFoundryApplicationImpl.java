@@ -18,11 +18,16 @@
  */
 package org.apache.brooklyn.cloudfoundry.entity;
 
+import java.util.Map;
 
-import org.apache.brooklyn.core.entity.Attributes;
+import org.apache.brooklyn.api.location.MachineLocation;
+import org.apache.brooklyn.cloudfoundry.location.CloudFoundryLocation;
 import org.apache.brooklyn.entity.software.base.EmptySoftwareProcessImpl;
+import org.apache.brooklyn.feed.function.FunctionFeed;
+import org.apache.brooklyn.util.collections.MutableMap;
 import org.apache.brooklyn.util.text.Identifiers;
 import org.apache.brooklyn.util.text.Strings;
+import org.cloudfoundry.client.v2.applications.ApplicationEntity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,10 +37,25 @@ public class VanillaCloudFoundryApplicationImpl extends EmptySoftwareProcessImpl
     private static final String DEFAULT_APP_PREFIX = "cf-app-";
 
     private String applicationName;
+    private FunctionFeed statisticsFeed;
+    private FunctionFeed healthFeed;
 
     public void init() {
         super.init();
         //initApplicationName();
+        checkConfiguration();
+    }
+
+    /**
+     * Checks the health check type here, as manifests are when parsed, rather than when deploying,
+     * after services may have been created.
+     */
+    private void checkConfiguration() {
+        String healthCheckType = getConfig(HEALTH_CHECK_TYPE);
+        if (healthCheckType != null && !CloudFoundryManifest.HEALTH_CHECK_TYPES.contains(healthCheckType.toLowerCase())) {
+            throw new IllegalArgumentException("Invalid " + HEALTH_CHECK_TYPE.getName() + " '" + healthCheckType
+                    + "' of " + this + ": not one of " + CloudFoundryManifest.HEALTH_CHECK_TYPES);
+        }
     }
 
     private void initApplicationName() {
@@ -46,22 +66,104 @@ public class VanillaCloudFoundryApplicationImpl extends EmptySoftwareProcessImpl
         this.sensors().set(APPLICATION_NAME, applicationName);
     }
 
+    @Override
+    public void rebind() {
+        super.rebind();
+        CloudFoundryEntities.reconnect(this);
+    }
+
     @Override
     protected void disconnectSensors() {
-        if(isSshMonitoringEnabled()) {
-            disconnectServiceUpIsRunning();
-        }
+        if (statisticsFeed != null) statisticsFeed.stop();
+        if (healthFeed != null) healthFeed.stop();
         super.disconnectSensors();
     }
 
     @Override
     protected void connectSensors() {
         super.connectSensors();
-        if (isSshMonitoringEnabled()) {
-            connectServiceUpIsRunning();
-        } else {
-            sensors().set(Attributes.SERVICE_UP, true);
+        statisticsFeed = InstanceStatisticsFeed.create(this);
+        healthFeed = HealthFeed.create(this);
+    }
+
+    @Override
+    public void setEnv(String name, String value) {
+        Map<String, String> env = MutableMap.copyOf(getEnv());
+        env.put(name, value);
+        ApplicationEntity application = getCloudFoundryLocation().updateEnvironment(getMachine(), env).block();
+        config().set(ENV, env);
+        publishApplication(application);
+    }
+
+    @Override
+    public void setInstancesNumber(int instancesNumber) {
+        ApplicationEntity application = getCloudFoundryLocation().scaleInstances(getMachine(), instancesNumber).block();
+        config().set(REQUIRED_INSTANCES, instancesNumber);
+        publishApplication(application);
+    }
+
+    @Override
+    public void setDiskQuota(int diskQuota) {
+        ApplicationEntity application = getCloudFoundryLocation().resize(getMachine(), null, diskQuota).block();
+        config().set(REQUIRED_DISK, diskQuota);
+        publishApplication(application);
+    }
+
+    @Override
+    public void setMemory(int memory) {
+        ApplicationEntity application = getCloudFoundryLocation().resize(getMachine(), memory, null).block();
+        config().set(REQUIRED_MEMORY, memory);
+        publishApplication(application);
+    }
+
+    @Override
+    public void rollingRestart(Integer maxUnavailable) {
+        getCloudFoundryLocation().rollingRestart(getMachine(), maxUnavailable).block();
+    }
+
+    @Override
+    public void redeploy(String artifact) {
+        // the location pushes whatever artifact is configured, so restore the old one if that fails
+        String previous = config().get(ARTIFACT_PATH);
+        if (artifact != null) {
+            config().set(ARTIFACT_PATH, artifact);
         }
+        try {
+            getCloudFoundryLocation().redeploy(getMachine(), this).block();
+        } catch (RuntimeException e) {
+            config().set(ARTIFACT_PATH, previous);
+            throw e;
+        }
+    }
+
+    private Map<String, String> getEnv() {
+        Map<String, String> env = sensors().get(ENV);
+        return env != null ? env : config().get(ENV);
+    }
+
+    /**
+     * Publishes the instances, memory, disk quota and environment of the application as
+     * confirmed by the platform.
+     */
+    private void publishApplication(ApplicationEntity application) {
+        sensors().set(INSTANCES, application.getInstances());
+        sensors().set(ALLOCATED_MEMORY, application.getMemory());
+        sensors().set(ALLOCATED_DISK, application.getDiskQuota());
+        if (application.getEnvironmentJsons() != null) {
+            Map<String, String> env = MutableMap.of();
+            for (Map.Entry<String, Object> entry : application.getEnvironmentJsons().entrySet()) {
+                env.put(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+            sensors().set(ENV, env);
+        }
+    }
+
+    private CloudFoundryLocation getCloudFoundryLocation() {
+        return CloudFoundryEntities.getCloudFoundryLocation(this);
+    }
+
+    private MachineLocation getMachine() {
+        return CloudFoundryEntities.getMachine(this);
     }
 
 }
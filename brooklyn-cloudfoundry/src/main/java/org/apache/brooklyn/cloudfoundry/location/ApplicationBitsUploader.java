@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.brooklyn.cloudfoundry.location.FingerprintIndex.FileFingerprint;
+import org.apache.brooklyn.cloudfoundry.location.FingerprintIndex.Fingerprints;
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.applications.Resource;
+import org.cloudfoundry.client.v2.applications.UploadApplicationRequest;
+import org.cloudfoundry.client.v2.resourcematch.ListMatchingResourcesRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Uploads the bits of an application, leaving out the files the Cloud Controller already holds
+ * in its resource cache, which are only referenced by fingerprint in the upload request, and
+ * the files ignored by the application ({@link CfIgnore}).
+ */
+class ApplicationBitsUploader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ApplicationBitsUploader.class);
+
+    private final CloudFoundryClient client;
+    private final FingerprintIndex index;
+
+    ApplicationBitsUploader(CloudFoundryClient client, FingerprintIndex index) {
+        this.client = client;
+        this.index = index;
+    }
+
+    Mono<Fingerprints> fingerprint(final Path artifact, final List<String> excludes) {
+        return Mono.fromCallable(() -> index.fingerprint(artifact, excludes))
+                .subscribeOn(Schedulers.elastic());
+    }
+
+    Mono<UploadResult> upload(final String applicationId, final Path artifact, final Fingerprints fingerprints) {
+        return getMatchedHashes(fingerprints.files)
+                .then(matched -> upload(applicationId, artifact, fingerprints, matched));
+    }
+
+    private Mono<Set<String>> getMatchedHashes(List<FileFingerprint> files) {
+        if (files.isEmpty()) {
+            return Mono.just(Collections.<String>emptySet());
+        }
+        List<org.cloudfoundry.client.v2.resourcematch.Resource> resources = Lists.newArrayListWithCapacity(files.size());
+        for (FileFingerprint file : files) {
+            resources.add(org.cloudfoundry.client.v2.resourcematch.Resource.builder()
+                    .hash(file.sha1)
+                    .size(file.size)
+                    .build());
+        }
+        return client.resourceMatch()
+                .list(ListMatchingResourcesRequest.builder().resources(resources).build())
+                .map(response -> {
+                    Set<String> matched = Sets.newHashSet();
+                    for (org.cloudfoundry.client.v2.resourcematch.Resource resource : response.getResources()) {
+                        matched.add(resource.getHash());
+                    }
+                    return matched;
+                });
+    }
+
+    private Mono<UploadResult> upload(final String applicationId, final Path artifact,
+            final Fingerprints fingerprints, final Set<String> matched) {
+        final List<FileFingerprint> files = fingerprints.files;
+        final List<Resource> resources = Lists.newArrayList();
+        final List<FileFingerprint> missing = Lists.newArrayList();
+        long skipped = 0;
+        long uploaded = 0;
+        for (FileFingerprint file : files) {
+            if (matched.contains(file.sha1)) {
+                resources.add(Resource.builder()
+                        .hash(file.sha1)
+                        .path(file.path)
+                        .size(file.size)
+                        .mode(file.mode)
+                        .build());
+                skipped += file.size;
+            } else {
+                missing.add(file);
+                uploaded += file.size;
+            }
+        }
+        final UploadResult result = new UploadResult(fingerprints.originalBytes, uploaded, skipped);
+        LOG.debug("Uploading {} of {} files of {} to application {}; {}",
+                new Object[] {missing.size(), files.size(), artifact, applicationId, result});
+
+        return Mono.using(
+                () -> createPackage(artifact, missing),
+                bits -> client.applicationsV2()
+                        .upload(UploadApplicationRequest.builder()
+                                .applicationId(applicationId)
+                                .application(bits)
+                                .resources(resources)
+                                .async(false)
+                                .build())
+                        .then(Mono.just(result)),
+                ApplicationBitsUploader::deleteQuietly)
+                // packaging reads and deflates the whole artifact, which must not happen on an IO thread
+                .subscribeOn(Schedulers.elastic());
+    }
+
+    /**
+     * A zip of the given files of the artifact, which is either a directory or an archive.
+     * Entries are deflated in parallel by a {@link ParallelZipWriter} when the zip fits its limits.
+     */
+    static Path createPackage(final Path artifact, List<FileFingerprint> files) throws IOException {
+        Path bits = Files.createTempFile("cloudfoundry-bits", ".zip");
+        try {
+            if (Files.isDirectory(artifact)) {
+                writePackage(bits, files, path -> Files.newInputStream(artifact.resolve(path)));
+            } else {
+                try (final ZipFile zip = new ZipFile(artifact.toFile())) {
+                    writePackage(bits, files, path -> zip.getInputStream(zip.getEntry(path)));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(bits);
+            throw e;
+        }
+        return bits;
+    }
+
+    private static void writePackage(Path bits, List<FileFingerprint> files, ParallelZipWriter.EntrySource source) throws IOException {
+        if (ParallelZipWriter.canWrite(files)) {
+            new ParallelZipWriter(ParallelZipWriter.DEFAULT_WINDOW).write(bits, files, source);
+            return;
+        }
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(bits))) {
+            for (FileFingerprint file : files) {
+                try (InputStream in = source.open(file.path)) {
+                    putEntry(out, file.path, in);
+                }
+            }
+        }
+    }
+
+    private static void putEntry(ZipOutputStream out, String path, InputStream in) throws IOException {
+        out.putNextEntry(new ZipEntry(path));
+        ByteStreams.copy(in, (OutputStream) out);
+        out.closeEntry();
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOG.debug("Cannot delete " + path, e);
+        }
+    }
+
+    static final class UploadResult {
+        /** The size of the artifact, including the files ignored. */
+        final long originalBytes;
+        final long uploadedBytes;
+        final long skippedBytes;
+
+        UploadResult(long originalBytes, long uploadedBytes, long skippedBytes) {
+            this.originalBytes = originalBytes;
+            this.uploadedBytes = uploadedBytes;
+            this.skippedBytes = skippedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return uploadedBytes + " bytes uploaded, " + skippedBytes + " bytes skipped, "
+                    + (originalBytes - uploadedBytes - skippedBytes) + " bytes ignored";
+        }
+    }
+}
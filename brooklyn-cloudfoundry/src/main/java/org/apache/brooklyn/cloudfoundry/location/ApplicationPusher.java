@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.brooklyn.cloudfoundry.location.ApplicationBitsUploader.UploadResult;
+import org.apache.brooklyn.cloudfoundry.location.FingerprintIndex.Fingerprints;
+import org.apache.brooklyn.util.text.Identifiers;
+import org.apache.brooklyn.util.time.Duration;
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.applications.CreateApplicationRequest;
+import org.cloudfoundry.client.v2.applications.UpdateApplicationRequest;
+import org.cloudfoundry.client.v2.shareddomains.ListSharedDomainsRequest;
+import org.cloudfoundry.client.v2.spaces.ListSpaceApplicationsRequest;
+import org.cloudfoundry.client.v3.Relationship;
+import org.cloudfoundry.client.v3.ToOneRelationship;
+import org.cloudfoundry.client.v3.applications.GetApplicationCurrentDropletRequest;
+import org.cloudfoundry.client.v3.applications.SetApplicationCurrentDropletRequest;
+import org.cloudfoundry.client.v3.droplets.CopyDropletRequest;
+import org.cloudfoundry.client.v3.droplets.DropletRelationships;
+import org.cloudfoundry.client.v3.droplets.DropletState;
+import org.cloudfoundry.client.v3.droplets.GetDropletRequest;
+import org.cloudfoundry.operations.CloudFoundryOperations;
+import org.cloudfoundry.operations.applications.PushApplicationRequest;
+import org.cloudfoundry.operations.applications.StartApplicationRequest;
+import org.cloudfoundry.operations.routes.MapRouteRequest;
+import org.cloudfoundry.operations.spaces.GetSpaceRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Pushes an application step by step, rather than through {@code applications().push()},
+ * so that its bits go through an {@link ApplicationBitsUploader}: the application is created
+ * (or updated), a route is mapped to it when new, its bits are uploaded and it is started
+ * unless {@link PushApplicationRequest#getNoStart() noStart} is set.
+ * <p>
+ * When a {@link DropletCache} is given and it knows an application staged from the same inputs,
+ * that application's droplet is copied instead of uploading the bits, so starting the application
+ * does not stage it.
+ */
+class ApplicationPusher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ApplicationPusher.class);
+
+    private static final Duration DROPLET_POLL_PERIOD = Duration.seconds(1);
+    private static final Duration MAX_DROPLET_POLL_PERIOD = Duration.seconds(10);
+
+    private final CloudFoundryClient client;
+    private final CloudFoundryOperations operations;
+    private final String apiHost;
+    private final String space;
+    private final ApplicationBitsUploader uploader;
+    private final DropletCache droplets;
+
+    ApplicationPusher(CloudFoundryClient client, CloudFoundryOperations operations, String apiHost, String space,
+            FingerprintIndex index, DropletCache droplets) {
+        this.client = client;
+        this.operations = operations;
+        this.apiHost = apiHost;
+        this.space = space;
+        this.uploader = new ApplicationBitsUploader(client, index);
+        this.droplets = droplets;
+    }
+
+    Mono<PushResult> push(final PushApplicationRequest request, final Map<String, ?> environment, final List<String> excludes) {
+        Mono<PushResult> pushed = getSpaceId()
+                .then(spaceId -> getApplicationId(spaceId, request.getName())
+                        .then(applicationId -> updateApplication(applicationId, request, environment))
+                        .otherwiseIfEmpty(createApplication(spaceId, request, environment)
+                                .then(applicationId -> mapRoute(request).then(Mono.just(applicationId)))))
+                .then(applicationId -> pushBits(applicationId, request, environment, excludes));
+        if (Boolean.TRUE.equals(request.getNoStart())) {
+            return pushed;
+        }
+        return pushed.then(result -> operations.applications()
+                .start(StartApplicationRequest.builder().name(request.getName()).build())
+                .then(Mono.just(result)));
+    }
+
+    /**
+     * Uploads the bits of the application, or copies a droplet staged from the same bits; there is
+     * nothing to push when the request has no application path, such as a manifest without one.
+     */
+    Mono<PushResult> pushBits(final String applicationId, final PushApplicationRequest request,
+            final Map<String, ?> environment, List<String> excludes) {
+        if (request.getApplication() == null) {
+            return Mono.just(new PushResult(applicationId, null, false));
+        }
+        return uploader.fingerprint(request.getApplication(), excludes)
+                .then(fingerprints -> droplets != null
+                        ? reuseOrUpload(applicationId, request, environment, fingerprints)
+                        : upload(applicationId, request.getApplication(), fingerprints));
+    }
+
+    private Mono<PushResult> upload(String applicationId, Path artifact, Fingerprints fingerprints) {
+        return uploader.upload(applicationId, artifact, fingerprints)
+                .map(upload -> new PushResult(applicationId, upload, false));
+    }
+
+    private Mono<PushResult> reuseOrUpload(final String applicationId, PushApplicationRequest request,
+            Map<String, ?> environment, Fingerprints fingerprints) {
+        final String key = DropletCache.key(apiHost, space, fingerprints.files, request.getBuildpack(), request.getStack(), environment);
+        final String source = droplets.get(key);
+        Mono<PushResult> uploaded = upload(applicationId, request.getApplication(), fingerprints)
+                .doOnSuccess(result -> droplets.put(key, applicationId));
+        if (source == null || source.equals(applicationId)) {
+            return uploaded;
+        }
+        return copyCurrentDroplet(source, applicationId)
+                .then(Mono.just(new PushResult(applicationId, null, true)))
+                .otherwise(e -> {
+                    LOG.debug("Cannot reuse the droplet of application " + source + ", staging " + request.getName(), e);
+                    droplets.invalidate(key, source);
+                    return uploaded;
+                });
+    }
+
+    private Mono<Void> copyCurrentDroplet(String sourceApplicationId, final String applicationId) {
+        return client.applicationsV3()
+                .getCurrentDroplet(GetApplicationCurrentDropletRequest.builder()
+                        .applicationId(sourceApplicationId)
+                        .build())
+                .then(droplet -> client.droplets()
+                        .copy(CopyDropletRequest.builder()
+                                .sourceDropletId(droplet.getId())
+                                .relationships(DropletRelationships.builder()
+                                        .application(ToOneRelationship.builder()
+                                                .data(Relationship.builder().id(applicationId).build())
+                                                .build())
+                                        .build())
+                                .build()))
+                .then(copy -> awaitStaged(copy.getId()))
+                .then(dropletId -> client.applicationsV3()
+                        .setCurrentDroplet(SetApplicationCurrentDropletRequest.builder()
+                                .applicationId(applicationId)
+                                .data(Relationship.builder().id(dropletId).build())
+                                .build()))
+                .then();
+    }
+
+    /**
+     * Polls the droplet, backing off exponentially, while it is being copied.
+     */
+    private Mono<String> awaitStaged(final String dropletId) {
+        final AtomicInteger attempt = new AtomicInteger();
+        return Mono.defer(() -> client.droplets().get(GetDropletRequest.builder().dropletId(dropletId).build()))
+                .then(droplet -> {
+                    if (droplet.getState() == DropletState.STAGED) {
+                        return Mono.just(droplet.getId());
+                    } else if (droplet.getState() == DropletState.FAILED || droplet.getState() == DropletState.EXPIRED) {
+                        return Mono.error(new IllegalStateException("Droplet " + dropletId + " is " + droplet.getState()));
+                    }
+                    return Mono.error(new DropletNotReadyException(dropletId));
+                })
+                .retryWhen(errors -> errors.flatMap(e -> (e instanceof DropletNotReadyException)
+                        ? Mono.delay(getPollDelay(attempt.getAndIncrement()))
+                        : Mono.<Long>error(e)));
+    }
+
+    private static java.time.Duration getPollDelay(int attempt) {
+        long delay = Math.min(DROPLET_POLL_PERIOD.toMilliseconds() << Math.min(attempt, 16), MAX_DROPLET_POLL_PERIOD.toMilliseconds());
+        return java.time.Duration.ofMillis(delay);
+    }
+
+    private Mono<String> getSpaceId() {
+        return operations.spaces()
+                .get(GetSpaceRequest.builder().name(space).build())
+                .map(spaceDetail -> spaceDetail.getId());
+    }
+
+    private Mono<String> getApplicationId(String spaceId, String applicationName) {
+        return client.spaces()
+                .listApplications(ListSpaceApplicationsRequest.builder()
+                        .spaceId(spaceId)
+                        .name(applicationName)
+                        .page(1)
+                        .build())
+                .then(response -> response.getResources().isEmpty()
+                        ? Mono.<String>empty()
+                        : Mono.just(response.getResources().get(0).getMetadata().getId()));
+    }
+
+    private Mono<String> createApplication(String spaceId, PushApplicationRequest request, Map<String, ?> environment) {
+        return client.applicationsV2()
+                .create(CreateApplicationRequest.builder()
+                        .name(request.getName())
+                        .spaceId(spaceId)
+                        .buildpack(request.getBuildpack())
+                        .diskQuota(request.getDiskQuota())
+                        .memory(request.getMemory())
+                        .instances(request.getInstances())
+                        .environmentJsons(environment)
+                        .healthCheckType(request.getHealthCheckType() != null ? request.getHealthCheckType().getValue() : null)
+                        .build())
+                .map(response -> response.getMetadata().getId());
+    }
+
+    private Mono<String> updateApplication(String applicationId, PushApplicationRequest request, Map<String, ?> environment) {
+        return client.applicationsV2()
+                .update(UpdateApplicationRequest.builder()
+                        .applicationId(applicationId)
+                        .buildpack(request.getBuildpack())
+                        .diskQuota(request.getDiskQuota())
+                        .memory(request.getMemory())
+                        .instances(request.getInstances())
+                        .environmentJsons(environment)
+                        .healthCheckType(request.getHealthCheckType() != null ? request.getHealthCheckType().getValue() : null)
+                        .build())
+                .map(response -> response.getMetadata().getId());
+    }
+
+    private Mono<Void> mapRoute(final PushApplicationRequest request) {
+        if (Boolean.TRUE.equals(request.getNoRoute())) {
+            return Mono.empty();
+        }
+        final String host;
+        if (request.getHost() != null) {
+            host = request.getHost();
+        } else if (Boolean.TRUE.equals(request.getRandomRoute())) {
+            host = request.getName() + "-" + Identifiers.makeRandomId(8).toLowerCase();
+        } else {
+            host = request.getName();
+        }
+        Mono<String> domain = request.getDomain() != null
+                ? Mono.just(request.getDomain())
+                : getDefaultDomain();
+        return domain
+                .then(domainName -> operations.routes()
+                        .map(MapRouteRequest.builder()
+                                .applicationName(request.getName())
+                                .domain(domainName)
+                                .host(host)
+                                .build())
+                        .then());
+    }
+
+    private Mono<String> getDefaultDomain() {
+        return client.sharedDomains()
+                .list(ListSharedDomainsRequest.builder().page(1).build())
+                .map(response -> response.getResources().get(0).getEntity().getName());
+    }
+
+    static final class PushResult {
+        final String applicationId;
+        /** Null when a droplet was reused or there were no bits, as nothing was uploaded. */
+        final UploadResult upload;
+        final boolean dropletReused;
+
+        PushResult(String applicationId, UploadResult upload, boolean dropletReused) {
+            this.applicationId = applicationId;
+            this.upload = upload;
+            this.dropletReused = dropletReused;
+        }
+    }
+
+    private static class DropletNotReadyException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        DropletNotReadyException(String dropletId) {
+            super("Droplet " + dropletId + " is not staged yet");
+        }
+    }
+}
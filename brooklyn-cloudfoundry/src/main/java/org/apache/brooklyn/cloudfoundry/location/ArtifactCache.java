@@ -0,0 +1,381 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.brooklyn.util.core.ResourceUtils;
+import org.apache.brooklyn.util.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Local copies of remote application artifacts ({@code http(s):}, {@code classpath:} and
+ * {@code mvn:groupId/artifactId/version[/type[/classifier]]} URLs), so that they do not have to
+ * be copied to every Brooklyn node beforehand and are downloaded once however many entities use
+ * them. HTTP artifacts are revalidated with their ETag or Last-Modified date; artifacts are
+ * verified against an optional SHA-1 or SHA-256 checksum; the least recently used ones are
+ * deleted when the cache grows beyond its size limit, unless they are {@link #acquire(String, String, String)
+ * leased}. Concurrent requests for the same artifact share one download.
+ */
+class ArtifactCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArtifactCache.class);
+
+    private static final ConcurrentMap<File, ArtifactCache> CACHES = new ConcurrentHashMap<>();
+
+    /** How long a downloaded artifact is used before being revalidated against its origin. */
+    static final Duration FRESHNESS = Duration.ONE_MINUTE;
+    private static final Duration CONNECT_TIMEOUT = Duration.seconds(10);
+    /** Longest wait for more of a download, rather than for the whole of it. */
+    private static final Duration READ_TIMEOUT = Duration.seconds(30);
+
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String SHA256 = "sha256";
+    private static final String LAST_USED = "lastUsed";
+    private static final String METADATA_SUFFIX = ".properties";
+
+    private final File directory;
+    private final long maxSize;
+    private final ConcurrentMap<String, SettableFuture<Path>> downloads = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> validated = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Integer> leases = new ConcurrentHashMap<>();
+
+    static ArtifactCache forDirectory(File directory, long maxSize) {
+        return CACHES.computeIfAbsent(directory, d -> new ArtifactCache(d, maxSize));
+    }
+
+    ArtifactCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * The local path of the artifact, downloading it if needed.
+     *
+     * @param url the artifact; {@code file:} URLs and plain paths are used in place
+     * @param checksum the expected SHA-1 or SHA-256 of the artifact, or null
+     * @param maven the base URL of the Maven repository used for {@code mvn:} URLs
+     */
+    Path get(String url, String checksum, String maven) {
+        if (url.startsWith("file:")) {
+            return verify(Paths.get(URI.create(url)), checksum);
+        } else if (!url.contains(":")) {
+            return verify(Paths.get(url), checksum);
+        }
+        String key = getKey(url);
+        SettableFuture<Path> download = SettableFuture.create();
+        SettableFuture<Path> current = downloads.putIfAbsent(key, download);
+        if (current != null) {
+            return verify(await(current), checksum);
+        }
+        try {
+            Path result = fetch(key, url, maven);
+            download.set(result);
+            return verify(result, checksum);
+        } catch (RuntimeException e) {
+            download.setException(e);
+            throw e;
+        } finally {
+            downloads.remove(key, download);
+        }
+    }
+
+    /**
+     * Like {@link #get(String, String, String)}, but the artifact is not evicted until the lease
+     * is closed, so that it can be read while other artifacts are downloaded.
+     */
+    Lease acquire(String url, String checksum, String maven) {
+        String key = (url.startsWith("file:") || !url.contains(":")) ? null : getKey(url);
+        if (key != null) {
+            // under the lock of evict, so that the artifact is either kept or downloaded again
+            synchronized (this) {
+                leases.merge(key, 1, Integer::sum);
+            }
+        }
+        try {
+            return new Lease(get(url, checksum, maven), key);
+        } catch (RuntimeException e) {
+            release(key);
+            throw e;
+        }
+    }
+
+    private void release(String key) {
+        if (key != null) {
+            leases.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    private static String getKey(String url) {
+        return Hashing.sha1().hashString(url, Charsets.UTF_8).toString();
+    }
+
+    private static Path await(SettableFuture<Path> download) {
+        try {
+            return Uninterruptibles.getUninterruptibly(download);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private Path fetch(String key, String url, String maven) {
+        Path data = new File(directory, key + getExtension(url)).toPath();
+        File metadataFile = new File(directory, key + METADATA_SUFFIX);
+        Properties metadata = readMetadata(metadataFile);
+        boolean cached = Files.exists(data) && metadata.getProperty(SHA256) != null;
+        Long lastValidated = validated.get(key);
+        try {
+            if (cached && (lastValidated != null && System.currentTimeMillis() - lastValidated < FRESHNESS.toMilliseconds()
+                    || url.startsWith("classpath:"))) {
+                LOG.trace("Using cached artifact {} for {}", data, url);
+            } else if (url.startsWith("http:") || url.startsWith("https:") || url.startsWith("mvn:")) {
+                String location = url.startsWith("mvn:") ? getMavenUrl(url, maven) : url;
+                fetchHttp(location, data, cached ? metadata : new Properties(), metadata);
+            } else {
+                try (InputStream in = ResourceUtils.create(this).getResourceFromUrl(url)) {
+                    store(in, data, metadata);
+                }
+            }
+            validated.put(key, System.currentTimeMillis());
+            metadata.setProperty(LAST_USED, Long.toString(System.currentTimeMillis()));
+            writeMetadata(metadataFile, metadata);
+        } catch (IOException e) {
+            if (cached) {
+                LOG.warn("Cannot revalidate artifact " + url + ", using the cached copy", e);
+                return data;
+            }
+            throw Throwables.propagate(e);
+        }
+        evict(key);
+        return data;
+    }
+
+    private void fetchHttp(String url, Path data, Properties cached, Properties metadata) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout((int) CONNECT_TIMEOUT.toMilliseconds());
+        connection.setReadTimeout((int) READ_TIMEOUT.toMilliseconds());
+        try {
+            if (cached.getProperty(ETAG) != null) {
+                connection.setRequestProperty("If-None-Match", cached.getProperty(ETAG));
+            }
+            if (cached.getProperty(LAST_MODIFIED) != null) {
+                connection.setIfModifiedSince(Long.parseLong(cached.getProperty(LAST_MODIFIED)));
+            }
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                LOG.debug("Cached artifact {} is still valid for {}", data, url);
+                return;
+            } else if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Cannot download " + url + ": HTTP " + status + " " + connection.getResponseMessage());
+            }
+            LOG.debug("Downloading {} to {}", url, data);
+            try (InputStream in = connection.getInputStream()) {
+                store(in, data, metadata);
+            }
+            metadata.remove(ETAG);
+            metadata.remove(LAST_MODIFIED);
+            if (connection.getHeaderField("ETag") != null) {
+                metadata.setProperty(ETAG, connection.getHeaderField("ETag"));
+            }
+            if (connection.getLastModified() > 0) {
+                metadata.setProperty(LAST_MODIFIED, Long.toString(connection.getLastModified()));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Writes the artifact to a temporary file first, so that concurrent readers of a previous
+     * version never see a partial file.
+     */
+    private void store(InputStream in, Path data, Properties metadata) throws IOException {
+        Files.createDirectories(directory.toPath());
+        Path tmp = Files.createTempFile(directory.toPath(), data.getFileName().toString(), ".tmp");
+        try {
+            HashingInputStream hashing = new HashingInputStream(Hashing.sha256(), in);
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                ByteStreams.copy(hashing, out);
+            }
+            Files.move(tmp, data, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            metadata.setProperty(SHA256, hashing.hash().toString());
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static Path verify(Path artifact, String checksum) {
+        if (Strings.isNullOrEmpty(checksum)) {
+            return artifact;
+        }
+        HashFunction function = checksum.length() == 40 ? Hashing.sha1() : Hashing.sha256();
+        try (InputStream in = Files.newInputStream(artifact)) {
+            String actual = FingerprintIndex.hash(function, in);
+            if (!actual.equalsIgnoreCase(checksum)) {
+                throw new IllegalStateException("Checksum of artifact " + artifact + " is " + actual + ", expected " + checksum);
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return artifact;
+    }
+
+    /**
+     * Deletes the least recently used artifacts, other than the given one and the ones being
+     * downloaded or leased, until the cache fits its size limit.
+     */
+    private synchronized void evict(String keep) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(METADATA_SUFFIX));
+        if (files == null) return;
+        List<Properties> entries = Lists.newArrayList();
+        long size = 0;
+        for (File file : files) {
+            Properties metadata = readMetadata(file);
+            String key = file.getName().substring(0, file.getName().length() - METADATA_SUFFIX.length());
+            File data = getDataFile(key);
+            if (data == null) continue;
+            metadata.setProperty("key", key);
+            metadata.setProperty("size", Long.toString(data.length()));
+            size += data.length();
+            entries.add(metadata);
+        }
+        entries.sort((a, b) -> Long.compare(Long.parseLong(a.getProperty(LAST_USED, "0")), Long.parseLong(b.getProperty(LAST_USED, "0"))));
+        for (Properties entry : entries) {
+            if (size <= maxSize) break;
+            String key = entry.getProperty("key");
+            if (key.equals(keep) || downloads.containsKey(key) || leases.containsKey(key)) continue;
+            File data = getDataFile(key);
+            LOG.debug("Evicting cached artifact {}", data);
+            if (data != null && data.delete()) {
+                new File(directory, key + METADATA_SUFFIX).delete();
+                validated.remove(key);
+                size -= Long.parseLong(entry.getProperty("size"));
+            }
+        }
+    }
+
+    private File getDataFile(String key) {
+        File[] data = directory.listFiles((dir, name) -> name.startsWith(key) && !name.endsWith(METADATA_SUFFIX) && !name.endsWith(".tmp"));
+        return data != null && data.length > 0 ? data[0] : null;
+    }
+
+    private static Properties readMetadata(File file) {
+        Properties metadata = new Properties();
+        if (file.exists()) {
+            try (Reader reader = Files.newBufferedReader(file.toPath(), Charsets.UTF_8)) {
+                metadata.load(reader);
+            } catch (IOException e) {
+                LOG.debug("Ignoring unreadable artifact metadata " + file, e);
+            }
+        }
+        return metadata;
+    }
+
+    private static void writeMetadata(File file, Properties metadata) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), Charsets.UTF_8)) {
+            metadata.store(writer, null);
+        }
+    }
+
+    private static String getExtension(String url) {
+        String name = url.startsWith("mvn:") ? "." + getMavenCoordinates(url).get(3) : url.replaceAll("[?#].*$", "");
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && dot > name.lastIndexOf('/') ? name.substring(dot) : "";
+    }
+
+    /**
+     * The URL in the given repository of {@code mvn:groupId/artifactId/version[/type[/classifier]]}.
+     */
+    static String getMavenUrl(String url, String repository) {
+        List<String> coordinates = getMavenCoordinates(url);
+        String groupId = coordinates.get(0);
+        String artifactId = coordinates.get(1);
+        String version = coordinates.get(2);
+        String classifier = coordinates.get(4).isEmpty() ? "" : "-" + coordinates.get(4);
+        return repository.replaceAll("/+$", "") + "/" + groupId.replace('.', '/') + "/" + artifactId + "/" + version
+                + "/" + artifactId + "-" + version + classifier + "." + coordinates.get(3);
+    }
+
+    private static List<String> getMavenCoordinates(String url) {
+        List<String> coordinates = Lists.newArrayList(Splitter.on('/').splitToList(url.substring("mvn:".length())));
+        if (coordinates.size() < 3 || coordinates.size() > 5) {
+            throw new IllegalArgumentException("Invalid Maven artifact " + url + ", expected mvn:groupId/artifactId/version[/type[/classifier]]");
+        }
+        if (coordinates.size() < 4) coordinates.add("jar");
+        if (coordinates.size() < 5) coordinates.add("");
+        return coordinates;
+    }
+
+    /**
+     * An artifact which is kept in the cache until the lease is closed.
+     */
+    final class Lease implements AutoCloseable {
+        private final Path path;
+        private final String key;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Lease(Path path, String key) {
+            this.path = path;
+            this.key = key;
+        }
+
+        Path getPath() {
+            return path;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(key);
+            }
+        }
+    }
+}
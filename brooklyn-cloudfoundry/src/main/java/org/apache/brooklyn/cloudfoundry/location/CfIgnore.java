@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The files left out of an application upload: {@link #DEFAULTS the patterns the cf CLI always
+ * ignores}, the {@code .cfignore} of the application and any extra patterns. Patterns follow
+ * {@code .gitignore} syntax: a leading {@code /} anchors a pattern to the application root, a
+ * trailing {@code /} only matches directories, {@code *}, {@code ?} and {@code **} are globs and a
+ * leading {@code !} includes again what an earlier pattern ignored.
+ */
+class CfIgnore {
+
+    static final String FILE_NAME = ".cfignore";
+
+    static final List<String> DEFAULTS = ImmutableList.of(
+            ".cfignore", "/manifest.yml", ".gitignore", ".git", ".hg", ".svn", "_darcs", ".DS_Store");
+
+    static final CfIgnore NONE = new CfIgnore(ImmutableList.<Rule>of());
+
+    private final List<Rule> rules;
+
+    private CfIgnore(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * The defaults, followed by the patterns of the given {@code .cfignore} contents (if any)
+     * and then by the extra patterns (if any).
+     */
+    static CfIgnore of(String cfIgnore, List<String> extraPatterns) {
+        ImmutableList.Builder<Rule> rules = ImmutableList.builder();
+        for (String pattern : DEFAULTS) {
+            rules.add(Rule.parse(pattern));
+        }
+        if (cfIgnore != null) {
+            for (String line : Splitter.onPattern("\r?\n").split(cfIgnore)) {
+                Rule rule = Rule.parse(line);
+                if (rule != null) rules.add(rule);
+            }
+        }
+        if (extraPatterns != null) {
+            for (String pattern : extraPatterns) {
+                Rule rule = Rule.parse(pattern);
+                if (rule != null) rules.add(rule);
+            }
+        }
+        return new CfIgnore(rules.build());
+    }
+
+    /**
+     * Whether the file or directory at the given path, relative to the application root and
+     * {@code /} separated, is ignored; its parent directories are not looked at.
+     */
+    boolean isIgnored(String path, boolean directory) {
+        boolean ignored = false;
+        for (Rule rule : rules) {
+            if ((directory || !rule.directoryOnly) && rule.pattern.matcher(path).matches()) {
+                ignored = !rule.negated;
+            }
+        }
+        return ignored;
+    }
+
+    /**
+     * Whether the file at the given path, or one of its parent directories, is ignored.
+     */
+    boolean isIgnoredWithParents(String path) {
+        int slash = -1;
+        while ((slash = path.indexOf('/', slash + 1)) >= 0) {
+            if (isIgnored(path.substring(0, slash), true)) return true;
+        }
+        return isIgnored(path, false);
+    }
+
+    private static final class Rule {
+        final Pattern pattern;
+        final boolean negated;
+        final boolean directoryOnly;
+
+        Rule(Pattern pattern, boolean negated, boolean directoryOnly) {
+            this.pattern = pattern;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+        }
+
+        static Rule parse(String line) {
+            String pattern = line.trim();
+            if (pattern.isEmpty() || pattern.startsWith("#")) return null;
+            boolean negated = pattern.startsWith("!");
+            if (negated) pattern = pattern.substring(1);
+            boolean directoryOnly = pattern.endsWith("/");
+            if (directoryOnly) pattern = pattern.substring(0, pattern.length() - 1);
+            // a pattern with a slash other than a trailing one is relative to the root
+            boolean anchored = pattern.contains("/");
+            if (pattern.startsWith("/")) pattern = pattern.substring(1);
+            if (pattern.isEmpty()) return null;
+            String regex = (anchored ? "" : "(?:.*/)?") + toRegex(pattern);
+            return new Rule(Pattern.compile(regex), negated, directoryOnly);
+        }
+
+        private static String toRegex(String glob) {
+            StringBuilder regex = new StringBuilder();
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (glob.startsWith("**/", i)) {
+                    regex.append("(?:.*/)?");
+                    i += 2;
+                } else if (glob.startsWith("**", i)) {
+                    regex.append(".*");
+                    i += 1;
+                } else if (c == '*') {
+                    regex.append("[^/]*");
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return regex.toString();
+        }
+    }
+}
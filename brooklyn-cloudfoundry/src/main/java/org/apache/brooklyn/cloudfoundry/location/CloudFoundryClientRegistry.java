@@ -22,6 +22,7 @@ package org.apache.brooklyn.cloudfoundry.location;
 import org.apache.brooklyn.util.core.config.ConfigBag;
 import org.cloudfoundry.client.CloudFoundryClient;
 import org.cloudfoundry.operations.CloudFoundryOperations;
+import org.cloudfoundry.reactor.TokenProvider;
 import org.cloudfoundry.uaa.UaaClient;
 
 public interface CloudFoundryClientRegistry {
@@ -29,4 +30,16 @@ public interface CloudFoundryClientRegistry {
     CloudFoundryClient getCloudFoundryClient(ConfigBag conf, boolean allowReuse);
     UaaClient getUaaClient(ConfigBag conf, boolean allowReuse);
     CloudFoundryOperations getCloudFoundryOperations(ConfigBag conf, boolean allowReuse);
+    TokenProvider getTokenProvider(ConfigBag conf, boolean allowReuse);
+
+    /**
+     * Records that a location is using the reusable clients for the given configuration.
+     */
+    void retain(ConfigBag conf);
+
+    /**
+     * Records that a location no longer uses the reusable clients for the given configuration;
+     * once no location uses them they are closed.
+     */
+    void release(ConfigBag conf);
 }
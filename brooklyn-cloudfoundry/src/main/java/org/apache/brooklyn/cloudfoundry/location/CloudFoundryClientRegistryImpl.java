@@ -20,67 +20,403 @@ package org.apache.brooklyn.cloudfoundry.location;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.brooklyn.cloudfoundry.location.CloudFoundryConnectionContextPool.ConnectionSettings;
 import org.apache.brooklyn.cloudfoundry.suppliers.CloudFoundryClientSupplier;
 import org.apache.brooklyn.cloudfoundry.suppliers.CloudFoundryOperationsSupplier;
 import org.apache.brooklyn.cloudfoundry.suppliers.UaaClientSupplier;
 import org.apache.brooklyn.util.core.config.ConfigBag;
+import org.apache.brooklyn.util.exceptions.Exceptions;
+import org.apache.brooklyn.util.time.Duration;
 import org.cloudfoundry.client.CloudFoundryClient;
 import org.cloudfoundry.operations.CloudFoundryOperations;
+import org.cloudfoundry.reactor.ConnectionContext;
+import org.cloudfoundry.reactor.DefaultConnectionContext;
+import org.cloudfoundry.reactor.TokenProvider;
 import org.cloudfoundry.uaa.UaaClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
 
+/**
+ * Caches the clients for each tenant, keyed by endpoint, identity, credential, org and space,
+ * so that locations targeting different tenants never share clients while locations targeting
+ * the same tenant do. Clients retained by a location are pinned until the last location using
+ * them releases them, when they are closed; the others are evicted once the cache is full or
+ * when they have been idle for too long. Clients obtained without reuse are new client objects
+ * over the connection context and token provider of their tenant, so they hold nothing of their
+ * own to close. Lookups only ever lock the tenant they are for. The connection contexts
+ * are shared across tenants of the same endpoint through a {@link CloudFoundryConnectionContextPool},
+ * and a single {@link RefreshingTokenProvider} is shared by all the clients using the same credentials.
+ */
 public class CloudFoundryClientRegistryImpl implements CloudFoundryClientRegistry {
 
+    private static final Logger LOG = LoggerFactory.getLogger(CloudFoundryClientRegistryImpl.class);
+
+    public static final int DEFAULT_MAX_CACHED_CLIENTS = 64;
+    public static final Duration DEFAULT_CLIENT_IDLE_TIMEOUT = Duration.minutes(30);
+
     public static final CloudFoundryClientRegistryImpl INSTANCE = new CloudFoundryClientRegistryImpl();
 
-    private CloudFoundryClientSupplier cloudFoundryClientSupplier;
-    private UaaClientSupplier uaaClientSupplier;
-    private CloudFoundryOperationsSupplier cloudFoundryOperationsSupplier;
+    private final CloudFoundryConnectionContextPool connectionContextPool;
+    private final Cache<ClientKey, CloudFoundryClients> clients;
+    private final ConcurrentMap<ClientKey, CloudFoundryClients> pinned = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ClientKey, Integer> leases = new ConcurrentHashMap<>();
+    private final TokenProviders tokenProviders = new TokenProviders();
 
     protected CloudFoundryClientRegistryImpl() {
+        this(DEFAULT_MAX_CACHED_CLIENTS, DEFAULT_CLIENT_IDLE_TIMEOUT);
+    }
+
+    protected CloudFoundryClientRegistryImpl(int maxCachedClients, Duration idleTimeout) {
+        this(maxCachedClients, idleTimeout, CloudFoundryConnectionContextPool.INSTANCE);
+    }
+
+    protected CloudFoundryClientRegistryImpl(int maxCachedClients, Duration idleTimeout, CloudFoundryConnectionContextPool connectionContextPool) {
+        this.connectionContextPool = connectionContextPool;
+        clients = CacheBuilder.newBuilder()
+                .maximumSize(maxCachedClients)
+                .expireAfterAccess(idleTimeout.toMilliseconds(), TimeUnit.MILLISECONDS)
+                .removalListener(new RemovalListener<ClientKey, CloudFoundryClients>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<ClientKey, CloudFoundryClients> notification) {
+                        if (pinned.get(notification.getKey()) == notification.getValue()) {
+                            // moved out of the cache by retain
+                            return;
+                        }
+                        LOG.debug("Closing cloudfoundry clients for {} ({})", notification.getKey(), notification.getCause());
+                        notification.getValue().close();
+                    }
+                })
+                .recordStats()
+                .build();
     }
 
     @Override
-    public synchronized CloudFoundryClient getCloudFoundryClient(ConfigBag conf, boolean allowReuse) {
-        if (cloudFoundryClientSupplier == null) {
-            initCloudFoundryClientSupplier(conf);
-        }
-        return cloudFoundryClientSupplier.get();
+    public CloudFoundryClient getCloudFoundryClient(ConfigBag conf, boolean allowReuse) {
+        return getClients(conf, allowReuse).getCloudFoundryClient();
     }
 
     @Override
-    public synchronized UaaClient getUaaClient(ConfigBag conf, boolean allowReuse) {
-        if (uaaClientSupplier == null) {
-            initUaaClientSupplier(conf);
-        }
-        return uaaClientSupplier.get();
+    public UaaClient getUaaClient(ConfigBag conf, boolean allowReuse) {
+        return getClients(conf, allowReuse).getUaaClient();
     }
 
     @Override
     public CloudFoundryOperations getCloudFoundryOperations(ConfigBag conf, boolean allowReuse) {
-        if (cloudFoundryOperationsSupplier == null) {
-            initCloudFoundryOperationsSupplier(conf);
+        return getClients(conf, allowReuse).getCloudFoundryOperations();
+    }
+
+    @Override
+    public TokenProvider getTokenProvider(ConfigBag conf, boolean allowReuse) {
+        return getClients(conf, allowReuse).getTokenProvider();
+    }
+
+    /**
+     * Pins the clients of the tenant, taking them out of the cache if they are there, so that
+     * they are neither evicted nor expired while in use. The leases of a tenant are counted
+     * atomically for that tenant only.
+     */
+    @Override
+    public void retain(ConfigBag conf) {
+        leases.compute(ClientKey.of(conf), (key, count) -> {
+            if (count == null) {
+                CloudFoundryClients cached = clients.getIfPresent(key);
+                if (cached != null) {
+                    pinned.put(key, cached);
+                    clients.invalidate(key);
+                }
+                return 1;
+            }
+            return count + 1;
+        });
+    }
+
+    @Override
+    public void release(ConfigBag conf) {
+        final ClientKey key = ClientKey.of(conf);
+        final AtomicReference<CloudFoundryClients> released = new AtomicReference<>();
+        leases.computeIfPresent(key, (k, count) -> {
+            if (count > 1) {
+                return count - 1;
+            }
+            released.set(pinned.remove(k));
+            return null;
+        });
+        if (released.get() != null) {
+            LOG.debug("Closing cloudfoundry clients for {} (released)", key);
+            released.get().close();
         }
-        return cloudFoundryOperationsSupplier.get();
     }
 
-    private void initCloudFoundryClientSupplier(ConfigBag conf) {
-        String apiHost = checkNotNull(conf.get(CloudFoundryLocationConfig.CLOUD_ENDPOINT), "endpoint must not be null");
-        String user = checkNotNull(conf.get(CloudFoundryLocationConfig.ACCESS_IDENTITY), "identity must not be null");
-        String password = checkNotNull(conf.get(CloudFoundryLocationConfig.ACCESS_CREDENTIAL), "credential must not be null");
-        cloudFoundryClientSupplier = new CloudFoundryClientSupplier(apiHost, user, password);
+    /**
+     * Hit, miss and eviction counts of the client cache.
+     */
+    public CacheStats getStats() {
+        return clients.stats();
+    }
+
+    /**
+     * Number of clients cached or pinned.
+     */
+    public long size() {
+        return clients.size() + pinned.size();
+    }
+
+    private CloudFoundryClients getClients(final ConfigBag conf, boolean allowReuse) {
+        final ClientKey key = ClientKey.of(conf);
+        CloudFoundryClients result = pinned.get(key);
+        if (result == null) {
+            result = getLeasedClients(key, conf);
+        }
+        if (result == null) {
+            result = getCachedClients(key, conf);
+        }
+        // not reused: new clients, sharing the connection and token of the tenant's own
+        return allowReuse ? result : new CloudFoundryClients(result);
+    }
+
+    /**
+     * The pinned clients of a retained tenant, created if need be while its leases cannot change,
+     * or null if the tenant is not retained.
+     */
+    private CloudFoundryClients getLeasedClients(final ClientKey key, final ConfigBag conf) {
+        final AtomicReference<CloudFoundryClients> result = new AtomicReference<>();
+        leases.computeIfPresent(key, (k, count) -> {
+            result.set(pinned.computeIfAbsent(k, k2 -> new CloudFoundryClients(k2, conf, connectionContextPool, tokenProviders)));
+            return count;
+        });
+        return result.get();
+    }
+
+    /**
+     * The cached clients of the tenant, loaded by the cache, which only blocks concurrent
+     * lookups of the same tenant while doing so.
+     */
+    private CloudFoundryClients getCachedClients(final ClientKey key, final ConfigBag conf) {
+        try {
+            return clients.get(key, new Callable<CloudFoundryClients>() {
+                @Override
+                public CloudFoundryClients call() {
+                    return new CloudFoundryClients(key, conf, connectionContextPool, tokenProviders);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw Exceptions.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Identifies a tenant; the credential is only kept as a hash.
+     */
+    static final class ClientKey {
+        private final ConnectionSettings connectionSettings;
+        private final String identity;
+        private final String credentialHash;
+        private final String organization;
+        private final String space;
+
+        ClientKey(ConnectionSettings connectionSettings, String identity, String credential, String organization, String space) {
+            this.connectionSettings = checkNotNull(connectionSettings, "connectionSettings");
+            this.identity = checkNotNull(identity, "identity must not be null");
+            this.credentialHash = Hashing.sha256()
+                    .hashString(checkNotNull(credential, "credential must not be null"), Charsets.UTF_8)
+                    .toString();
+            this.organization = organization;
+            this.space = space;
+        }
+
+        static ClientKey of(ConfigBag conf) {
+            return new ClientKey(
+                    ConnectionSettings.of(conf),
+                    conf.get(CloudFoundryLocationConfig.ACCESS_IDENTITY),
+                    conf.get(CloudFoundryLocationConfig.ACCESS_CREDENTIAL),
+                    conf.get(CloudFoundryLocationConfig.CF_ORG),
+                    conf.get(CloudFoundryLocationConfig.CF_SPACE));
+        }
+
+        /**
+         * Identifies the credentials, which are shared across the orgs and spaces they give access to.
+         */
+        List<String> getCredentialsKey() {
+            return ImmutableList.of(connectionSettings.getApiHost(), identity, credentialHash);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ClientKey)) return false;
+            ClientKey other = (ClientKey) o;
+            return Objects.equal(connectionSettings, other.connectionSettings)
+                    && Objects.equal(identity, other.identity)
+                    && Objects.equal(credentialHash, other.credentialHash)
+                    && Objects.equal(organization, other.organization)
+                    && Objects.equal(space, other.space);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(connectionSettings, identity, credentialHash, organization, space);
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("endpoint", connectionSettings.getApiHost())
+                    .add("identity", identity)
+                    .add("organization", organization)
+                    .add("space", space)
+                    .toString();
+        }
     }
 
-    private void initUaaClientSupplier(ConfigBag conf) {
-        String apiHost = checkNotNull(conf.get(CloudFoundryLocationConfig.CLOUD_ENDPOINT), "endpoint must not be null");
-        String user = checkNotNull(conf.get(CloudFoundryLocationConfig.ACCESS_IDENTITY), "identity must not be null");
-        String password = checkNotNull(conf.get(CloudFoundryLocationConfig.ACCESS_CREDENTIAL), "credential must not be null");
-        uaaClientSupplier = new UaaClientSupplier(apiHost, user, password);
+    /**
+     * The clients of a single tenant. The operations client is created on first use, as it
+     * requires an org and space which are not needed by the other clients. Without a pool the
+     * clients get a connection context and token provider of their own.
+     */
+    static final class CloudFoundryClients {
+        private final ClientKey key;
+        private final CloudFoundryConnectionContextPool connectionContextPool;
+        private final TokenProviders tokenProviders;
+        private final ConnectionContext connectionContext;
+        private final RefreshingTokenProvider tokenProvider;
+        private final CloudFoundryClient cloudFoundryClient;
+        private final UaaClient uaaClient;
+        private final boolean owner;
+        private volatile CloudFoundryOperations cloudFoundryOperations;
+
+        CloudFoundryClients(ClientKey key, ConfigBag conf, CloudFoundryConnectionContextPool connectionContextPool, TokenProviders tokenProviders) {
+            this.key = key;
+            this.connectionContextPool = connectionContextPool;
+            this.tokenProviders = tokenProviders;
+            String user = conf.get(CloudFoundryLocationConfig.ACCESS_IDENTITY);
+            String password = conf.get(CloudFoundryLocationConfig.ACCESS_CREDENTIAL);
+            connectionContext = (connectionContextPool != null)
+                    ? connectionContextPool.acquire(key.connectionSettings)
+                    : key.connectionSettings.newConnectionContext();
+            tokenProvider = (tokenProviders != null)
+                    ? tokenProviders.acquire(key.getCredentialsKey(), user, password)
+                    : new RefreshingTokenProvider(user, password);
+            cloudFoundryClient = new CloudFoundryClientSupplier(connectionContext, tokenProvider).get();
+            uaaClient = new UaaClientSupplier(connectionContext, tokenProvider).get();
+            owner = true;
+        }
+
+        /**
+         * New clients over the connection context and token provider of {@code shared}, which
+         * remain owned, and closed, by it.
+         */
+        CloudFoundryClients(CloudFoundryClients shared) {
+            this.key = shared.key;
+            this.connectionContextPool = null;
+            this.tokenProviders = null;
+            connectionContext = shared.connectionContext;
+            tokenProvider = shared.tokenProvider;
+            cloudFoundryClient = new CloudFoundryClientSupplier(connectionContext, tokenProvider).get();
+            uaaClient = new UaaClientSupplier(connectionContext, tokenProvider).get();
+            owner = false;
+        }
+
+        RefreshingTokenProvider getTokenProvider() {
+            return tokenProvider;
+        }
+
+        CloudFoundryClient getCloudFoundryClient() {
+            return cloudFoundryClient;
+        }
+
+        UaaClient getUaaClient() {
+            return uaaClient;
+        }
+
+        CloudFoundryOperations getCloudFoundryOperations() {
+            if (cloudFoundryOperations == null) {
+                synchronized (this) {
+                    if (cloudFoundryOperations == null) {
+                        String organization = checkNotNull(key.organization, "organization must not be null");
+                        String space = checkNotNull(key.space, "space must not be null");
+                        cloudFoundryOperations = new CloudFoundryOperationsSupplier(
+                                cloudFoundryClient, uaaClient, organization, space).get();
+                    }
+                }
+            }
+            return cloudFoundryOperations;
+        }
+
+        void close() {
+            if (!owner) {
+                return;
+            }
+            if (tokenProviders != null) {
+                tokenProviders.release(key.getCredentialsKey());
+            } else {
+                tokenProvider.close();
+            }
+            if (connectionContextPool != null) {
+                connectionContextPool.release(key.connectionSettings);
+            } else if (connectionContext instanceof DefaultConnectionContext) {
+                ((DefaultConnectionContext) connectionContext).dispose();
+            }
+        }
     }
 
-    private void initCloudFoundryOperationsSupplier(ConfigBag conf) {
-        String organization = checkNotNull(conf.get(CloudFoundryLocationConfig.CF_ORG), "organization must not be null");
-        String space = checkNotNull(conf.get(CloudFoundryLocationConfig.CF_SPACE), "space must not be null");
-        cloudFoundryOperationsSupplier = new CloudFoundryOperationsSupplier(getCloudFoundryClient(conf, true), getUaaClient(conf, true), organization, space);
+    /**
+     * Reference-counted token providers, one per set of credentials.
+     */
+    static final class TokenProviders {
+        private final ConcurrentMap<List<String>, SharedTokenProvider> providers = new ConcurrentHashMap<>();
+
+        RefreshingTokenProvider acquire(List<String> credentialsKey, String user, String password) {
+            return providers.compute(credentialsKey, (key, existing) -> {
+                if (existing == null) {
+                    existing = new SharedTokenProvider(new RefreshingTokenProvider(user, password));
+                }
+                existing.references++;
+                return existing;
+            }).tokenProvider;
+        }
+
+        void release(List<String> credentialsKey) {
+            providers.computeIfPresent(credentialsKey, (key, existing) -> {
+                if (--existing.references > 0) {
+                    return existing;
+                }
+                existing.tokenProvider.close();
+                return null;
+            });
+        }
+
+        int size() {
+            return providers.size();
+        }
+
+        private static final class SharedTokenProvider {
+            private final RefreshingTokenProvider tokenProvider;
+            // only accessed from within ConcurrentMap.compute, which is atomic per key
+            private int references;
+
+            SharedTokenProvider(RefreshingTokenProvider tokenProvider) {
+                this.tokenProvider = tokenProvider;
+            }
+        }
     }
 
 }
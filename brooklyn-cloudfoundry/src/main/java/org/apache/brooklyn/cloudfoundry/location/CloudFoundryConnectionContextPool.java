@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.brooklyn.util.core.config.ConfigBag;
+import org.apache.brooklyn.util.time.Duration;
+import org.cloudfoundry.reactor.ConnectionContext;
+import org.cloudfoundry.reactor.DefaultConnectionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+
+/**
+ * Reference-counted {@link ConnectionContext}s, one per API host and connection settings, so that
+ * every client talking to the same Cloud Controller shares the same connection pool, TLS sessions
+ * and event loop. A context is disposed when its last user releases it.
+ */
+public class CloudFoundryConnectionContextPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CloudFoundryConnectionContextPool.class);
+
+    public static final CloudFoundryConnectionContextPool INSTANCE = new CloudFoundryConnectionContextPool();
+
+    private final ConcurrentMap<ConnectionSettings, PooledConnectionContext> contexts = new ConcurrentHashMap<>();
+
+    protected CloudFoundryConnectionContextPool() {
+    }
+
+    public ConnectionContext acquire(ConnectionSettings settings) {
+        PooledConnectionContext pooled = contexts.compute(settings, (key, existing) -> {
+            if (existing == null) {
+                LOG.debug("Creating shared cloudfoundry connection context for {}", key);
+                existing = new PooledConnectionContext(key.newConnectionContext());
+            }
+            existing.references++;
+            return existing;
+        });
+        return pooled.connectionContext;
+    }
+
+    public void release(ConnectionSettings settings) {
+        contexts.computeIfPresent(settings, (key, existing) -> {
+            checkState(existing.references > 0, "connection context for %s already released", key);
+            if (--existing.references > 0) {
+                return existing;
+            }
+            LOG.debug("Disposing shared cloudfoundry connection context for {}", key);
+            existing.connectionContext.dispose();
+            return null;
+        });
+    }
+
+    public int size() {
+        return contexts.size();
+    }
+
+    private static final class PooledConnectionContext {
+        private final DefaultConnectionContext connectionContext;
+        // only accessed from within ConcurrentMap.compute, which is atomic per key
+        private int references;
+
+        PooledConnectionContext(DefaultConnectionContext connectionContext) {
+            this.connectionContext = connectionContext;
+        }
+    }
+
+    /**
+     * The settings that a shared connection context is built from.
+     */
+    public static final class ConnectionSettings {
+        private final String apiHost;
+        private final Integer poolSize;
+        private final Boolean keepAlive;
+        private final Duration connectTimeout;
+        private final Duration readTimeout;
+
+        public ConnectionSettings(String apiHost, Integer poolSize, Boolean keepAlive, Duration connectTimeout, Duration readTimeout) {
+            this.apiHost = checkNotNull(apiHost, "endpoint must not be null");
+            this.poolSize = poolSize;
+            this.keepAlive = keepAlive;
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+        }
+
+        public static ConnectionSettings of(ConfigBag conf) {
+            return new ConnectionSettings(
+                    conf.get(CloudFoundryLocationConfig.CLOUD_ENDPOINT),
+                    conf.get(CloudFoundryLocationConfig.CONNECTION_POOL_SIZE),
+                    conf.get(CloudFoundryLocationConfig.CONNECTION_KEEP_ALIVE),
+                    conf.get(CloudFoundryLocationConfig.CONNECT_TIMEOUT),
+                    conf.get(CloudFoundryLocationConfig.READ_TIMEOUT));
+        }
+
+        public String getApiHost() {
+            return apiHost;
+        }
+
+        DefaultConnectionContext newConnectionContext() {
+            DefaultConnectionContext.Builder builder = DefaultConnectionContext.builder()
+                    .apiHost(apiHost)
+                    .skipSslValidation(true); // TODO
+            if (poolSize != null) builder.connectionPoolSize(poolSize);
+            if (keepAlive != null) builder.keepAlive(keepAlive);
+            if (connectTimeout != null) builder.sslHandshakeTimeout(java.time.Duration.ofMillis(connectTimeout.toMilliseconds()));
+            if (readTimeout != null) builder.socketTimeout(java.time.Duration.ofMillis(readTimeout.toMilliseconds()));
+            return builder.build();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ConnectionSettings)) return false;
+            ConnectionSettings other = (ConnectionSettings) o;
+            return Objects.equal(apiHost, other.apiHost)
+                    && Objects.equal(poolSize, other.poolSize)
+                    && Objects.equal(keepAlive, other.keepAlive)
+                    && Objects.equal(connectTimeout, other.connectTimeout)
+                    && Objects.equal(readTimeout, other.readTimeout);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(apiHost, poolSize, keepAlive, connectTimeout, readTimeout);
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("apiHost", apiHost)
+                    .add("poolSize", poolSize)
+                    .add("keepAlive", keepAlive)
+                    .add("connectTimeout", connectTimeout)
+                    .add("readTimeout", readTimeout)
+                    .toString();
+        }
+    }
+}
@@ -18,67 +18,94 @@
  */
 package org.apache.brooklyn.cloudfoundry.location;
 
-import static org.apache.brooklyn.cloudfoundry.entity.CloudFoundryAppFromManifest.CONFIGURATION_CONTENTS;
-import static org.apache.brooklyn.cloudfoundry.entity.CloudFoundryAppFromManifest.CONFIGURATION_URL;
-import static org.apache.brooklyn.util.text.Strings.isBlank;
-
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.File;
 import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.apache.brooklyn.api.entity.Entity;
 import org.apache.brooklyn.api.location.LocationSpec;
 import org.apache.brooklyn.api.location.MachineLocation;
 import org.apache.brooklyn.api.location.MachineProvisioningLocation;
 import org.apache.brooklyn.api.location.NoMachinesAvailableException;
+import org.apache.brooklyn.api.sensor.AttributeSensor;
 import org.apache.brooklyn.cloudfoundry.entity.CloudFoundryAppFromManifest;
+import org.apache.brooklyn.cloudfoundry.entity.CloudFoundryManifest;
+import org.apache.brooklyn.cloudfoundry.entity.CloudFoundryManifest.ApplicationManifest;
+import org.apache.brooklyn.cloudfoundry.entity.ManifestCache;
 import org.apache.brooklyn.cloudfoundry.entity.VanillaCloudFoundryApplication;
 import org.apache.brooklyn.core.entity.BrooklynConfigKeys;
 import org.apache.brooklyn.core.location.AbstractLocation;
 import org.apache.brooklyn.core.location.cloud.CloudLocationConfig;
 import org.apache.brooklyn.location.ssh.SshMachineLocation;
 import org.apache.brooklyn.util.collections.MutableMap;
-import org.apache.brooklyn.util.core.ResourceUtils;
 import org.apache.brooklyn.util.core.config.ConfigBag;
 import org.apache.brooklyn.util.core.config.ResolvingConfigBag;
-import org.apache.brooklyn.util.exceptions.PropagatedRuntimeException;
-import org.apache.brooklyn.util.yaml.Yamls;
+import org.apache.brooklyn.util.text.Identifiers;
+import org.apache.brooklyn.util.time.Duration;
 import org.cloudfoundry.client.CloudFoundryClient;
-import org.cloudfoundry.client.v2.info.GetInfoRequest;
+import org.cloudfoundry.client.v2.applications.ApplicationEntity;
+import org.cloudfoundry.client.v2.applications.AssociateApplicationRouteRequest;
+import org.cloudfoundry.client.v2.applications.ApplicationStatisticsRequest;
+import org.cloudfoundry.client.v2.applications.ApplicationStatisticsResponse;
+import org.cloudfoundry.client.v2.applications.DeleteApplicationRequest;
+import org.cloudfoundry.client.v2.applications.InstanceStatistics;
+import org.cloudfoundry.client.v2.applications.RemoveApplicationRouteRequest;
+import org.cloudfoundry.client.v2.applications.Route;
+import org.cloudfoundry.client.v2.applications.SummaryApplicationRequest;
+import org.cloudfoundry.client.v2.applications.UpdateApplicationRequest;
 import org.cloudfoundry.client.v2.info.GetInfoResponse;
+import org.cloudfoundry.client.v2.routes.DeleteRouteRequest;
 import org.cloudfoundry.operations.CloudFoundryOperations;
 import org.cloudfoundry.operations.applications.ApplicationDetail;
 import org.cloudfoundry.operations.applications.ApplicationHealthCheck;
-import org.cloudfoundry.operations.applications.DeleteApplicationRequest;
 import org.cloudfoundry.operations.applications.GetApplicationRequest;
 import org.cloudfoundry.operations.applications.PushApplicationRequest;
-import org.cloudfoundry.operations.applications.RestartApplicationRequest;
+import org.cloudfoundry.operations.applications.StartApplicationRequest;
 import org.cloudfoundry.operations.services.BindServiceInstanceRequest;
 import org.cloudfoundry.operations.services.CreateServiceInstanceRequest;
-import org.cloudfoundry.operations.services.DeleteServiceInstanceRequest;
-import org.cloudfoundry.operations.services.ServiceInstanceSummary;
+import org.cloudfoundry.operations.services.UnbindServiceInstanceRequest;
+import org.cloudfoundry.reactor.TokenProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.UrlResource;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Splitter;
-import com.google.common.base.Throwables;
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 public class CloudFoundryLocation extends AbstractLocation implements MachineProvisioningLocation<MachineLocation>, CloudFoundryLocationConfig {
 
     private static final Logger LOG = LoggerFactory.getLogger(CloudFoundryLocation.class);
 
-    private CloudFoundryOperations cloudFoundryOperations;
-    private CloudFoundryClient cloudFoundryClient;
+    private static final String STARTED = "STARTED";
+    private static final String STOPPED = "STOPPED";
+
+    private static final int RENAME_ATTEMPTS = 3;
+    private static final Duration RENAME_RETRY_DELAY = Duration.seconds(2);
+
+    private final AtomicBoolean clientsRetained = new AtomicBoolean(false);
+    private final AtomicLong stagingAvoided = new AtomicLong();
+    private transient SpaceApplicationsPoller applicationsPoller;
 
     public CloudFoundryLocation() {
         super();
@@ -105,12 +132,10 @@ public class CloudFoundryLocation extends AbstractLocation implements MachinePro
     }
 
     protected CloudFoundryClient getCloudFoundryClient(ConfigBag config) {
-        if (cloudFoundryClient == null) {
-            CloudFoundryClientRegistry registry = getConfig(CF_CLIENT_REGISTRY);
-            cloudFoundryClient = registry.getCloudFoundryClient(
-                    ResolvingConfigBag.newInstanceExtending(getManagementContext(), config), true);
-        }
-        return cloudFoundryClient;
+        retainClients();
+        CloudFoundryClientRegistry registry = getConfig(CF_CLIENT_REGISTRY);
+        return registry.getCloudFoundryClient(
+                ResolvingConfigBag.newInstanceExtending(getManagementContext(), config), true);
     }
 
     protected CloudFoundryOperations getCloudFoundryOperations() {
@@ -125,62 +150,359 @@ public class CloudFoundryLocation extends AbstractLocation implements MachinePro
     }
 
     protected CloudFoundryOperations getCloudFoundryOperations(ConfigBag config) {
-        if (cloudFoundryOperations == null) {
-            CloudFoundryClientRegistry registry = getConfig(CF_CLIENT_REGISTRY);
-            cloudFoundryOperations = registry.getCloudFoundryOperations(
-                    ResolvingConfigBag.newInstanceExtending(getManagementContext(), config), true);
+        retainClients();
+        CloudFoundryClientRegistry registry = getConfig(CF_CLIENT_REGISTRY);
+        return registry.getCloudFoundryOperations(
+                ResolvingConfigBag.newInstanceExtending(getManagementContext(), config), true);
+    }
+
+    protected TokenProvider getTokenProvider(ConfigBag config) {
+        retainClients();
+        CloudFoundryClientRegistry registry = getConfig(CF_CLIENT_REGISTRY);
+        return registry.getTokenProvider(
+                ResolvingConfigBag.newInstanceExtending(getManagementContext(), config), true);
+    }
+
+    /**
+     * The clients are shared through the registry with the other locations of the same tenant,
+     * so they are not held here; instead the registry is told that this location uses them until
+     * it is unmanaged.
+     */
+    private void retainClients() {
+        if (clientsRetained.compareAndSet(false, true)) {
+            getConfig(CF_CLIENT_REGISTRY).retain(getClientsConfig());
         }
-        return cloudFoundryOperations;
+    }
+
+    private ConfigBag getClientsConfig() {
+        return ResolvingConfigBag.newInstanceExtending(getManagementContext(), config().getBag());
+    }
+
+    /**
+     * The poller of the applications of the space, which publishes the sensors of all the entities
+     * deployed by this location.
+     */
+    synchronized SpaceApplicationsPoller getApplicationsPoller() {
+        if (applicationsPoller == null) {
+            applicationsPoller = new SpaceApplicationsPoller(this::getCloudFoundryClient, this::getCloudFoundryOperations,
+                    getConfig(CF_SPACE), getConfig(APPLICATIONS_POLL_PERIOD), getConfig(APPLICATIONS_MAX_POLL_PERIOD));
+        }
+        return applicationsPoller;
+    }
+
+    /**
+     * Called when the entity deployed on the machine is rebound, after a restart of Brooklyn: its
+     * sensors are refreshed, and its application checked to still exist, by the next poll of the
+     * applications of the space, which is shared by all the entities rebound at the same time.
+     * Clients are only created when that poll is made.
+     */
+    public void reconnect(MachineLocation machine, Entity entity) {
+        getApplicationsPoller().reconnect(machine.config().get(APPLICATION_NAME), entity);
+    }
+
+    @Override
+    public void onManagementStopped() {
+        synchronized (this) {
+            if (applicationsPoller != null) {
+                applicationsPoller.stop();
+            }
+        }
+        if (clientsRetained.compareAndSet(true, false)) {
+            getConfig(CF_CLIENT_REGISTRY).release(getClientsConfig());
+        }
+        super.onManagementStopped();
     }
 
     @Override
     public MachineLocation obtain(Map<?, ?> flags) throws NoMachinesAvailableException {
+        return obtainAsync(flags).block();
+    }
+
+    /**
+     * Non-blocking variant of {@link #obtain(Map)}; the whole provisioning is bounded by
+     * {@link #OPERATIONS_TIMEOUT}, and cancelling the subscription cancels the in-flight requests.
+     */
+    public Mono<MachineLocation> obtainAsync(Map<?, ?> flags) {
         ConfigBag setupRaw = ConfigBag.newInstanceExtending(config().getBag(), flags);
-        ConfigBag setup = ResolvingConfigBag.newInstanceExtending(getManagementContext(), setupRaw);
+        final ConfigBag setup = ResolvingConfigBag.newInstanceExtending(getManagementContext(), setupRaw);
+
+        return Mono.defer(() -> createCloudFoundryContainerLocation(setup))
+                .timeout(getOperationsTimeout(setup));
+    }
+
+    /**
+     * Obtains one machine for each of the given flags, for entities deploying the same artifact,
+     * such as the members of a cluster being scaled out.
+     *
+     * @see #obtainBatchAsync(List)
+     */
+    public List<MachineLocation> obtainBatch(List<? extends Map<?, ?>> flags) throws NoMachinesAvailableException {
+        return obtainBatchAsync(flags).block();
+    }
+
+    /**
+     * Non-blocking variant of {@link #obtainBatch(List)}. When droplets can be reused (both
+     * {@link #RESOURCE_MATCHING} and {@link #DROPLET_REUSE} are enabled) the first machine is obtained
+     * on its own, so its bits are uploaded and staged once, and the others then get copies of its
+     * droplet without hashing the artifact again; otherwise every machine stages anyway, so none waits
+     * for the first. Machines are obtained concurrently, at most {@link #APPLICATIONS_PARALLELISM} at a
+     * time. The machines are in the order of the flags; if any of them cannot be obtained, the ones
+     * which were are released, and so are the applications left behind by the ones which were not.
+     */
+    public Mono<List<MachineLocation>> obtainBatchAsync(final List<? extends Map<?, ?>> flags) {
+        if (flags.isEmpty()) {
+            return Mono.just(ImmutableList.<MachineLocation>of());
+        }
+        final List<MachineLocation> obtained = Collections.synchronizedList(Lists.<MachineLocation>newArrayList());
+        int parallelism = config().get(APPLICATIONS_PARALLELISM);
+        final boolean stageOnce = config().get(RESOURCE_MATCHING) && config().get(DROPLET_REUSE);
+        final int concurrentFrom = stageOnce ? 1 : 0;
+        Mono<Void> first = stageOnce
+                ? obtainBatchMemberAsync(flags.get(0)).doOnSuccess(obtained::add).then()
+                : Mono.<Void>empty();
+        return first
+                .thenMany(Flux.range(concurrentFrom, flags.size() - concurrentFrom)
+                        .flatMap(i -> obtainBatchMemberAsync(flags.get(i))
+                                .doOnSuccess(obtained::add)
+                                .map(machine -> Tuples.of(i, machine)), parallelism))
+                .collectSortedList((a, b) -> a.getT1().compareTo(b.getT1()))
+                .<List<MachineLocation>>map(others -> {
+                    ImmutableList.Builder<MachineLocation> result = ImmutableList.builder();
+                    if (stageOnce) {
+                        result.add(obtained.get(0));
+                    }
+                    for (Tuple2<Integer, MachineLocation> other : others) {
+                        result.add(other.getT2());
+                    }
+                    return result.build();
+                })
+                .doOnError(error -> {
+                    synchronized (obtained) {
+                        for (MachineLocation machine : obtained) {
+                            releaseAsync(machine).subscribe(
+                                    v -> LOG.debug("Released machine {} of failed batch", machine),
+                                    e -> LOG.warn("Error releasing machine " + machine + " of failed batch", e));
+                        }
+                    }
+                });
+    }
 
-        cloudFoundryClient = getCloudFoundryClient(setup);
-        return createCloudFoundryContainerLocation(setup);
+    /**
+     * Obtains a machine of a batch, deleting the applications it partially created if that fails
+     * or is cancelled because another member failed.
+     */
+    private Mono<MachineLocation> obtainBatchMemberAsync(final Map<?, ?> flags) {
+        final AtomicBoolean done = new AtomicBoolean();
+        return obtainAsync(flags)
+                .doOnSuccess(machine -> done.set(true))
+                .otherwise(error -> {
+                    done.set(true);
+                    return releaseFailedAsync(flags)
+                            .otherwise(e -> {
+                                LOG.warn("Error releasing applications of failed batch member", e);
+                                return Mono.empty();
+                            })
+                            .then(Mono.<MachineLocation>error(error));
+                })
+                .doOnCancel(() -> {
+                    if (done.compareAndSet(false, true)) {
+                        releaseFailedAsync(flags).subscribe(
+                                v -> LOG.debug("Released applications of cancelled batch member"),
+                                e -> LOG.warn("Error releasing applications of cancelled batch member", e));
+                    }
+                });
     }
 
-    private MachineLocation createCloudFoundryContainerLocation(ConfigBag setup) {
-        Entity entity = lookUpEntityFromCallerContext(setup.get(CALLER_CONTEXT)) ;
+    /**
+     * Deletes the applications which an {@link #obtainAsync(Map) obtain} with these flags may have
+     * created before failing. Applications which were never created are skipped.
+     */
+    private Mono<Void> releaseFailedAsync(Map<?, ?> flags) {
+        ConfigBag setupRaw = ConfigBag.newInstanceExtending(config().getBag(), flags);
+        final ConfigBag setup = ResolvingConfigBag.newInstanceExtending(getManagementContext(), setupRaw);
+        Entity entity = lookUpEntityFromCallerContext(setup.get(CALLER_CONTEXT));
+
+        return Flux.fromIterable(getApplicationNames(entity))
+                .flatMap(name -> releaseApplication(name, null, setup)
+                        .otherwise(e -> {
+                            LOG.debug("Not releasing application " + name + " of failed batch member", e);
+                            return Mono.empty();
+                        }), setup.get(APPLICATIONS_PARALLELISM))
+                .then()
+                .timeout(getOperationsTimeout(setup));
+    }
 
-        PushApplicationRequest pushApplicationRequest;
-        List<String> serviceInstanceNames;
+    /**
+     * The names of the applications deployed for the entity, the first one being its machine.
+     */
+    private List<String> getApplicationNames(Entity entity) {
         if (isVanillaCloudFoundryApplication(entity)) {
-            pushApplicationRequest = createPushApplicationRequestFromVanillaCloudFoundryApplication(entity);
-            serviceInstanceNames = createInstanceServices(entity.config().get(VanillaCloudFoundryApplication.SERVICES));
-        } else if(isCloudFoundryAppFromManifet(entity)) {
-            Map<?, ?> manifestAsMap = getMapFromManifest(getManifestYamlFromEntity(entity));
-            pushApplicationRequest = createPushApplicationRequestFromManifest(manifestAsMap);
-            serviceInstanceNames = getServiceInstancesFromManifest(manifestAsMap);
+            return ImmutableList.of(entity.config().get(VanillaCloudFoundryApplication.APPLICATION_NAME));
+        } else if (isCloudFoundryAppFromManifet(entity)) {
+            List<String> applicationNames = Lists.newArrayList();
+            for (ApplicationManifest application : ManifestCache.INSTANCE.get(entity).getApplications()) {
+                applicationNames.add(application.getName());
+            }
+            return applicationNames;
         } else {
             throw new IllegalStateException("Can't deploy entity type different than " + VanillaCloudFoundryApplication.class.getSimpleName());
         }
+    }
 
-        pushApplication(pushApplicationRequest);
+    private Mono<MachineLocation> createCloudFoundryContainerLocation(final ConfigBag setup) {
+        final Entity entity = lookUpEntityFromCallerContext(setup.get(CALLER_CONTEXT)) ;
+        final DeploymentProgress progress = new DeploymentProgress(entity);
 
-        String applicationName = pushApplicationRequest.getName();
+        final List<String> applicationNames = getApplicationNames(entity);
+        Mono<Void> deployed;
+        if (isVanillaCloudFoundryApplication(entity)) {
+            deployed = withPushApplicationRequestFromVanillaCloudFoundryApplication(entity,
+                    pushApplicationRequest -> deployApplication(pushApplicationRequest,
+                            entity.config().get(VanillaCloudFoundryApplication.ENV),
+                            entity.config().get(VanillaCloudFoundryApplication.ARTIFACT_EXCLUDES),
+                            createInstanceServices(entity.config().get(VanillaCloudFoundryApplication.SERVICES), setup),
+                            entity, progress, setup));
+        } else {
+            deployed = deployManifest(ManifestCache.INSTANCE.get(entity), entity, progress, setup);
+        }
 
-        // bind services
-        if (!serviceInstanceNames.isEmpty()) {
-            bindServices(applicationName, serviceInstanceNames);
-            restartApplication(applicationName);
+        // the machine is the first application of the entity
+        final String applicationName = applicationNames.get(0);
+
+        // the platform info does not depend on the application, so it is looked up while deploying
+        return Mono.when(deployed.then(Mono.just(applicationName)), getPlatformInfo(setup))
+                .then(deployment -> {
+                    final GetInfoResponse info = deployment.getT2();
+                    return Mono.when(getApplicationDetail(applicationName), getSshCode())
+                            .map(details -> buildLocationSpec(details.getT1(), applicationNames, getSshPort(info), details.getT2(), setup.get(CALLER_CONTEXT)))
+                            .map(locationSpec -> {
+                                MachineLocation machine = getManagementContext().getLocationManager().createLocation(locationSpec);
+                                publishTokenStats(entity, setup);
+                                publishPlatformInfo(entity, info);
+                                getApplicationsPoller().register(applicationName, entity);
+                                return machine;
+                            });
+                });
+    }
+
+    /**
+     * Deploys the applications of the manifest, at most {@link #APPLICATIONS_PARALLELISM} at a time,
+     * each one once the applications it depends on are running.
+     */
+    private Mono<Void> deployManifest(CloudFoundryManifest manifest, final Entity entity, final DeploymentProgress progress,
+            final ConfigBag setup) {
+        final List<String> excludes = entity.config().get(CloudFoundryAppFromManifest.ARTIFACT_EXCLUDES);
+        final Map<String, Mono<Void>> deployments = Maps.newHashMap();
+        for (final ApplicationManifest application : manifest.getDeploymentOrder()) {
+            progress.phase(application.getName(), DeploymentProgress.WAITING);
+            List<Mono<Void>> dependencies = Lists.newArrayList();
+            for (String dependency : application.getDependsOn()) {
+                dependencies.add(deployments.get(dependency));
+            }
+            Mono<Void> deployment = Flux.merge(dependencies)
+                    .then()
+                    .then(Mono.defer(() -> withPushApplicationRequestFromManifest(application,
+                            pushApplicationRequest -> deployApplication(pushApplicationRequest, application.getEnv(),
+                                    excludes, Mono.just(application.getServices()), entity, progress, setup))))
+                    .cache();
+            deployments.put(application.getName(), deployment);
         }
+        return Flux.fromIterable(manifest.getDeploymentOrder())
+                .flatMap(application -> deployments.get(application.getName()), setup.get(APPLICATIONS_PARALLELISM))
+                .then();
+    }
 
-        LocationSpec<SshMachineLocation> locationSpec = buildLocationSpec(applicationName, setup.get(CALLER_CONTEXT));
-        return getManagementContext().getLocationManager().createLocation(locationSpec);
+    /**
+     * Pushes the application while its services are created, binds them and starts it.
+     */
+    private Mono<Void> deployApplication(PushApplicationRequest pushApplicationRequest, Map<String, ?> environment,
+            List<String> excludes, Mono<List<String>> serviceInstanceNames, final Entity entity,
+            final DeploymentProgress progress, final ConfigBag setup) {
+        // before any service is created
+        checkArtifactExcludes(excludes, setup);
+        final String applicationName = pushApplicationRequest.getName();
+        final boolean startAfterBinding = setup.get(START_AFTER_BINDING);
+        PushApplicationRequest request = startAfterBinding
+                ? PushApplicationRequest.builder().from(pushApplicationRequest).noStart(true).build()
+                : pushApplicationRequest;
+
+        // services are created while the application bits are uploaded
+        return Mono.when(
+                        timed(serviceInstanceNames, entity, CloudFoundryLocationSensors.SERVICES_DURATION),
+                        Mono.defer(() -> {
+                            progress.phase(applicationName, DeploymentProgress.PUSHING);
+                            return timed(pushApplication(request, environment, excludes, entity, setup), entity, CloudFoundryLocationSensors.PUSH_DURATION);
+                        }).then(Mono.just(applicationName)))
+                .then(pushed -> {
+                    List<String> names = pushed.getT1();
+                    progress.phase(applicationName, DeploymentProgress.BINDING);
+                    Mono<Void> bound = timed(bindServices(applicationName, names, setup), entity, CloudFoundryLocationSensors.BIND_DURATION)
+                            .doOnSuccess(v -> progress.phase(applicationName, DeploymentProgress.STARTING));
+                    if (startAfterBinding) {
+                        // a single start, once the bindings are in place; it completes when an instance is healthy
+                        return bound.then(timed(startApplication(applicationName, entity, setup), entity, CloudFoundryLocationSensors.START_DURATION));
+                    }
+                    // bound services are only seen by the application after a restart
+                    return bound.then(names.isEmpty()
+                            ? Mono.<Void>empty()
+                            : timed(restartApplication(applicationName, entity, setup), entity, CloudFoundryLocationSensors.START_DURATION));
+                })
+                .doOnSuccess(v -> progress.phase(applicationName, DeploymentProgress.RUNNING))
+                .doOnError(e -> progress.phase(applicationName, DeploymentProgress.FAILED));
+    }
+
+    /**
+     * The {@code /v2/info} of the endpoint, cached for {@link #PLATFORM_INFO_TTL}.
+     */
+    public Mono<GetInfoResponse> getPlatformInfo() {
+        return getPlatformInfo(config().getBag());
+    }
+
+    protected Mono<GetInfoResponse> getPlatformInfo(ConfigBag setup) {
+        return PlatformInfoCache.INSTANCE.get(setup.get(CLOUD_ENDPOINT), getCloudFoundryClient(setup), setup.get(PLATFORM_INFO_TTL));
+    }
+
+    private void publishPlatformInfo(Entity entity, GetInfoResponse info) {
+        entity.sensors().set(CloudFoundryLocationSensors.PLATFORM_API_VERSION, info.getApiVersion());
+        entity.sensors().set(CloudFoundryLocationSensors.PLATFORM_SSH_ENDPOINT, info.getApplicationSshEndpoint());
+        entity.sensors().set(CloudFoundryLocationSensors.PLATFORM_SSH_HOST_KEY_FINGERPRINT, info.getApplicationSshHostKeyFingerprint());
+        entity.sensors().set(CloudFoundryLocationSensors.PLATFORM_AUTHORIZATION_ENDPOINT, info.getAuthorizationEndpoint());
+        entity.sensors().set(CloudFoundryLocationSensors.PLATFORM_TOKEN_ENDPOINT, info.getTokenEndpoint());
+        entity.sensors().set(CloudFoundryLocationSensors.PLATFORM_LOGGING_ENDPOINT, info.getDopplerLoggingEndpoint());
+    }
+
+    /**
+     * Publishes how long the given operation took on the entity once it completes.
+     */
+    private static <T> Mono<T> timed(final Mono<T> operation, final Entity entity, final AttributeSensor<Duration> sensor) {
+        return Mono.defer(() -> {
+            final Stopwatch stopwatch = Stopwatch.createStarted();
+            return operation.doOnSuccess(result -> entity.sensors().set(sensor, Duration.millis(stopwatch.elapsed(TimeUnit.MILLISECONDS))));
+        });
+    }
+
+    private static java.time.Duration getOperationsTimeout(ConfigBag setup) {
+        return java.time.Duration.ofMillis(setup.get(OPERATIONS_TIMEOUT).toMilliseconds());
+    }
+
+    private void publishTokenStats(Entity entity, ConfigBag setup) {
+        TokenProvider tokenProvider = getTokenProvider(setup);
+        if (tokenProvider instanceof RefreshingTokenProvider) {
+            RefreshingTokenProvider refreshingTokenProvider = (RefreshingTokenProvider) tokenProvider;
+            entity.sensors().set(CloudFoundryLocationSensors.TOKEN_REFRESH_COUNT, refreshingTokenProvider.getRefreshCount());
+            entity.sensors().set(CloudFoundryLocationSensors.TOKEN_ACQUISITION_LATENCY, refreshingTokenProvider.getLastAcquisitionLatency());
+        }
     }
 
-    private LocationSpec<SshMachineLocation> buildLocationSpec(String applicationName, Object callerContext) {
-        ApplicationDetail applicationDetail = getApplicationDetail(applicationName);
+    private LocationSpec<SshMachineLocation> buildLocationSpec(ApplicationDetail applicationDetail, List<String> applicationNames,
+            Integer port, String sshCode, Object callerContext) {
         String address = Iterables.getOnlyElement(applicationDetail.getUrls());
-        Integer port = getSshPort();
-        String sshCode = getCloudFoundryOperations().advanced().sshCode().block();
 
         return LocationSpec.create(SshMachineLocation.class)
                 .configure("address", address)
-                .configure(CloudFoundryLocationConfig.APPLICATION_NAME, applicationName)
+                .configure(CloudFoundryLocationConfig.APPLICATION_NAME, applicationDetail.getName())
+                .configure(CloudFoundryLocationConfig.APPLICATION_ID, applicationDetail.getId())
+                .configure(CloudFoundryLocationConfig.APPLICATION_NAMES, ImmutableList.copyOf(applicationNames))
                 .configure(SshMachineLocation.PRIVATE_ADDRESSES, ImmutableList.of(address))
                 .configure(CloudLocationConfig.USER, String.format("cf:%s/0", applicationDetail.getId()))
                 .configure(SshMachineLocation.PASSWORD, sshCode)
@@ -190,19 +512,72 @@ public class CloudFoundryLocation extends AbstractLocation implements MachinePro
                 .configure(CALLER_CONTEXT, callerContext);
     }
 
-    private void pushApplication(PushApplicationRequest pushApplicationRequest) {
-        getCloudFoundryOperations().applications().push(pushApplicationRequest).block();
+    private Mono<Void> pushApplication(PushApplicationRequest pushApplicationRequest, Map<String, ?> environment,
+            List<String> excludes, final Entity entity, ConfigBag setup) {
+        checkArtifactExcludes(excludes, setup);
+        if (!setup.get(RESOURCE_MATCHING)) {
+            return pushWholeApplication(pushApplicationRequest, environment, setup);
+        }
+        FingerprintIndex index = FingerprintIndex.of(new File(setup.get(FINGERPRINT_INDEX_DIR)));
+        DropletCache droplets = setup.get(DROPLET_REUSE) ? DropletCache.INSTANCE : null;
+        return new ApplicationPusher(getCloudFoundryClient(setup), getCloudFoundryOperations(setup),
+                        setup.get(CLOUD_ENDPOINT), setup.get(CF_SPACE), index, droplets)
+                .push(pushApplicationRequest, environment, excludes)
+                .doOnSuccess(result -> {
+                    if (result.dropletReused) {
+                        entity.sensors().set(CloudFoundryLocationSensors.STAGING_AVOIDED_COUNT, stagingAvoided.incrementAndGet());
+                    } else if (result.upload != null) {
+                        entity.sensors().set(CloudFoundryLocationSensors.BITS_ORIGINAL_BYTES, result.upload.originalBytes);
+                        entity.sensors().set(CloudFoundryLocationSensors.BITS_UPLOADED_BYTES, result.upload.uploadedBytes);
+                        entity.sensors().set(CloudFoundryLocationSensors.BITS_SKIPPED_BYTES, result.upload.skippedBytes);
+                    }
+                })
+                .then();
+    }
+
+    /**
+     * Pushes the whole artifact through the operations API, which cannot set the environment of
+     * the application, so the application is only started once its environment has been set.
+     */
+    private Mono<Void> pushWholeApplication(final PushApplicationRequest pushApplicationRequest, final Map<String, ?> environment,
+            final ConfigBag setup) {
+        if (environment == null || environment.isEmpty()) {
+            return getCloudFoundryOperations(setup).applications().push(pushApplicationRequest);
+        }
+        final String applicationName = pushApplicationRequest.getName();
+        Mono<Void> pushed = getCloudFoundryOperations(setup).applications()
+                .push(PushApplicationRequest.builder().from(pushApplicationRequest).noStart(true).build())
+                .then(getApplicationId(applicationName, null))
+                .then(applicationId -> getCloudFoundryClient(setup).applicationsV2()
+                        .update(UpdateApplicationRequest.builder()
+                                .applicationId(applicationId)
+                                .environmentJsons(environment)
+                                .build()))
+                .then();
+        return Boolean.TRUE.equals(pushApplicationRequest.getNoStart())
+                ? pushed
+                : pushed.then(getCloudFoundryOperations(setup).applications()
+                        .start(StartApplicationRequest.builder().name(applicationName).build()));
     }
 
-    private Integer getSshPort() {
+    /**
+     * Excludes are applied while fingerprinting the artifact, so they cannot be honoured when the
+     * whole artifact is pushed.
+     */
+    private static void checkArtifactExcludes(List<String> excludes, ConfigBag setup) {
+        if (excludes != null && !excludes.isEmpty() && !setup.get(RESOURCE_MATCHING)) {
+            throw new IllegalArgumentException("Artifact excludes " + excludes + " require "
+                    + RESOURCE_MATCHING.getName() + " to be enabled");
+        }
+    }
+
+    private Integer getSshPort(GetInfoResponse info) {
         // see https://docs.cloudfoundry.org/devguide/deploy-apps/ssh-apps.html#other-ssh-access
-        GetInfoResponse info = getCloudFoundryClient().info().get(GetInfoRequest.builder().build()).block();
-        String sshEndpoint = info.getApplicationSshEndpoint();
-        return Integer.parseInt(Iterables.get(Splitter.on(":").split(sshEndpoint), 1));
+        return Integer.parseInt(Iterables.get(Splitter.on(":").split(info.getApplicationSshEndpoint()), 1));
     }
 
-    private List getServiceInstancesFromManifest(Map<?, ?> manifestAsMap) {
-        return (List) manifestAsMap.get("services");
+    private Mono<String> getSshCode() {
+        return getCloudFoundryOperations().advanced().sshCode();
     }
 
     private Entity lookUpEntityFromCallerContext(Object callerContext) {
@@ -213,105 +588,349 @@ public class CloudFoundryLocation extends AbstractLocation implements MachinePro
     }
 
 
-    private PushApplicationRequest createPushApplicationRequestFromVanillaCloudFoundryApplication(Entity entity) {
-        String applicationName = entity.config().get(VanillaCloudFoundryApplication.APPLICATION_NAME);
-        String domainName = entity.config().get(VanillaCloudFoundryApplication.APPLICATION_DOMAIN);
-        int memory = entity.config().get(VanillaCloudFoundryApplication.REQUIRED_MEMORY);
-        int disk = entity.config().get(VanillaCloudFoundryApplication.REQUIRED_DISK);
-        int instances = entity.config().get(VanillaCloudFoundryApplication.REQUIRED_INSTANCES);
+    /**
+     * Runs the push of the application of the entity, keeping its artifact in the cache until it completes.
+     */
+    private <T> Mono<T> withPushApplicationRequestFromVanillaCloudFoundryApplication(Entity entity,
+            final Function<PushApplicationRequest, Mono<T>> push) {
+        final String applicationName = entity.config().get(VanillaCloudFoundryApplication.APPLICATION_NAME);
+        final String domainName = entity.config().get(VanillaCloudFoundryApplication.APPLICATION_DOMAIN);
+        final int memory = entity.config().get(VanillaCloudFoundryApplication.REQUIRED_MEMORY);
+        final int disk = entity.config().get(VanillaCloudFoundryApplication.REQUIRED_DISK);
+        final int instances = entity.config().get(VanillaCloudFoundryApplication.REQUIRED_INSTANCES);
+        final String buildpack = entity.config().get(VanillaCloudFoundryApplication.BUILDPACK);
+        final String healthCheckType = entity.config().get(VanillaCloudFoundryApplication.HEALTH_CHECK_TYPE);
         String artifact = entity.config().get(VanillaCloudFoundryApplication.ARTIFACT_PATH);
-        Path artifactLocalPath = getArtifactLocalPath(artifact);
-        String buildpack = entity.config().get(VanillaCloudFoundryApplication.BUILDPACK);
-        return createPushApplicationRequest(applicationName, memory, disk, artifactLocalPath, buildpack, domainName, instances);
-    }
-
-    private PushApplicationRequest createPushApplicationRequestFromManifest(Map<?, ?> manifestAsMap) {
-        String applicationName = (String) manifestAsMap.get("name");
-        String buildpack = (String) manifestAsMap.get("buildpack");
-        Integer memory = MoreObjects.firstNonNull((Integer) manifestAsMap.get("memory"), 256);
-        Integer disk = MoreObjects.firstNonNull((Integer) manifestAsMap.get("disk"), 512);
-        String path = (String) manifestAsMap.get("path");
-        String domain = (String) manifestAsMap.get("domain");
-        Integer instances = MoreObjects.firstNonNull((Integer) manifestAsMap.get("instances"), 1);
-        Path artifactLocalPath = getArtifactLocalPath(path);
-        return createPushApplicationRequest(applicationName, memory, disk, artifactLocalPath, buildpack, domain, instances);
-    }
-
-    private String getManifestYamlFromEntity(Entity entity) {
-        String configurationUrl = entity.getConfig(CONFIGURATION_URL);
-        String configurationContents = entity.config().get(CONFIGURATION_CONTENTS);
-
-        // Exactly one of the two must have a value
-        if (isBlank(configurationUrl) == isBlank(configurationContents))
-            throw new IllegalArgumentException("Exactly one of the two must have a value: '"
-                    + CONFIGURATION_URL.getName() + "' or '" + CONFIGURATION_CONTENTS.getName() + "'.");
-
-        if (!isBlank(configurationUrl)) {
-            InputStream inputStream = new ResourceUtils(entity).getResourceFromUrl(configurationUrl);
-            return getStringFromInputStream(inputStream);
-        } else if (!isBlank(configurationContents)) {
-                return configurationContents;
-        } else {
-            throw new IllegalStateException("Cannot find configurationUrl nor configurationContents in the entity");
-        }
+        return withArtifactLocalPath(artifact, entity.config().get(VanillaCloudFoundryApplication.ARTIFACT_CHECKSUM),
+                artifactLocalPath -> push.apply(createPushApplicationRequest(applicationName, memory, disk,
+                        artifactLocalPath.orElse(null), buildpack, domainName, instances, healthCheckType)));
     }
 
-    private Map<?, ?> getMapFromManifest(String yaml) {
-        return Yamls.getAs(Yamls.parseAll(yaml), Map.class);
+    private <T> Mono<T> withPushApplicationRequestFromManifest(final ApplicationManifest manifest,
+            final Function<PushApplicationRequest, Mono<T>> push) {
+        return withArtifactLocalPath(manifest.getPath(), null,
+                artifactLocalPath -> push.apply(createPushApplicationRequest(manifest.getName(), manifest.getMemory(),
+                        manifest.getDiskQuota(), artifactLocalPath.orElse(null), manifest.getBuildpack(), manifest.getDomain(),
+                        manifest.getInstances(), manifest.getHealthCheckType())));
     }
 
-    private static String getStringFromInputStream(InputStream inputStream) {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        byte[] buffer = new byte[1024];
-        String result;
-        int length;
-        try {
-            while ((length = inputStream.read(buffer)) != -1) {
-                byteArrayOutputStream.write(buffer, 0, length);
-            }
-            result = byteArrayOutputStream.toString(Charsets.UTF_8.name());
-        } catch (IOException e) {
-            throw Throwables.propagate(e);
-        }
-        return result;
+    /**
+     * Runs the action with the local path of the artifact, if any, which is leased from the
+     * {@link ArtifactCache} until the action completes. Remote artifacts are downloaded, and
+     * checksums verified, on the elastic scheduler rather than on the thread of the caller,
+     * which may be an IO thread.
+     */
+    private <T> Mono<T> withArtifactLocalPath(final String artifact, final String checksum,
+            final Function<Optional<Path>, Mono<T>> action) {
+        if (artifact == null) return action.apply(Optional.<Path>empty());
+        final ArtifactCache cache = ArtifactCache.forDirectory(new File(getConfig(ARTIFACT_CACHE_DIR)), getConfig(ARTIFACT_CACHE_MAX_SIZE));
+        final String mavenRepositoryUrl = getConfig(MAVEN_REPOSITORY_URL);
+        return Mono.using(
+                        () -> cache.acquire(artifact, checksum, mavenRepositoryUrl),
+                        lease -> action.apply(Optional.of(lease.getPath())),
+                        ArtifactCache.Lease::close)
+                .subscribeOn(Schedulers.elastic());
     }
 
-    private Path getArtifactLocalPath(String artifact) {
-        if (artifact == null) return null;
-        try {
-            return new UrlResource(artifact).getFile().toPath();
-        } catch (IOException e) {
-            throw Throwables.propagate(e);
-        }
+    /**
+     * Redeploys the application of the machine, deployed for the given {@link VanillaCloudFoundryApplication}
+     * from its current config, without downtime. The new version is pushed under a temporary name,
+     * bound to the services of the application and started; once one of its instances is healthy,
+     * the routes of the application are mapped to it and unmapped from the old version, which is
+     * deleted, and it takes the name of the application. If anything fails before the routes have
+     * moved, they are mapped back to the old version and the new version is deleted. Once they have
+     * moved the machine refers to the new version, even if deleting the old one or renaming the new
+     * one then fails, which is reported with the name the new version is left with. The duration of
+     * each phase is published in {@link CloudFoundryLocationSensors#REDEPLOY_DURATIONS}.
+     */
+    public Mono<Void> redeploy(final MachineLocation machine, final Entity entity) {
+        final ConfigBag setup = config().getBag();
+        final String applicationName = machine.config().get(APPLICATION_NAME);
+        final String temporaryName = applicationName + "-" + Identifiers.makeRandomId(8).toLowerCase();
+        final Map<String, Duration> durations = Maps.newLinkedHashMap();
+
+        return getApplicationId(applicationName, machine.config().get(APPLICATION_ID))
+                .then(oldId -> getCloudFoundryClient().applicationsV2()
+                        .summary(SummaryApplicationRequest.builder().applicationId(oldId).build())
+                        .then(summary -> {
+                            final List<String> routeIds = Lists.newArrayList();
+                            for (Route route : summary.getRoutes()) {
+                                routeIds.add(route.getId());
+                            }
+                            final List<String> serviceInstanceNames = Lists.newArrayList();
+                            for (org.cloudfoundry.client.v2.serviceinstances.ServiceInstance serviceInstance : summary.getServices()) {
+                                serviceInstanceNames.add(serviceInstance.getName());
+                            }
+                            Mono<String> pushed = phase(durations, entity, "push",
+                                    withPushApplicationRequestFromVanillaCloudFoundryApplication(entity,
+                                            current -> pushApplication(PushApplicationRequest.builder()
+                                                            .from(current)
+                                                            .name(temporaryName)
+                                                            .randomRoute(false)
+                                                            .noRoute(true)
+                                                            .noStart(true)
+                                                            .build(),
+                                                    entity.config().get(VanillaCloudFoundryApplication.ENV),
+                                                    entity.config().get(VanillaCloudFoundryApplication.ARTIFACT_EXCLUDES), entity, setup))
+                                            .then(getApplicationId(temporaryName, null)))
+                                    .otherwise(e -> getApplicationId(temporaryName, null)
+                                            .then(newId -> deleteApplicationKeepingServices(temporaryName, newId, ImmutableList.<String>of()))
+                                            .otherwise(e2 -> Mono.empty())
+                                            .then(Mono.<String>error(e)));
+                            return pushed.then(newId -> phase(durations, entity, "start",
+                                            bindServices(temporaryName, serviceInstanceNames, setup)
+                                                    .then(startApplication(temporaryName, entity, setup)))
+                                    .then(phase(durations, entity, "switch", switchRoutes(routeIds, oldId, newId)))
+                                    .otherwise(e -> {
+                                        LOG.warn("Error redeploying " + applicationName + ", rolling back", e);
+                                        return switchRoutes(routeIds, newId, oldId)
+                                                .otherwise(e2 -> Mono.empty())
+                                                .then(deleteApplicationKeepingServices(temporaryName, newId, serviceInstanceNames))
+                                                .then(Mono.<Void>error(e));
+                                    })
+                                    // the new version serves the application from now on, whatever happens next
+                                    .doOnSuccess(v -> machine.config().set(APPLICATION_ID, newId))
+                                    .then(phase(durations, entity, "cleanup",
+                                            deleteApplicationKeepingServices(applicationName, oldId, serviceInstanceNames)
+                                                    .otherwise(e -> Mono.error(new IllegalStateException("Cannot delete the old version "
+                                                            + oldId + " of " + applicationName + "; the new version is left named "
+                                                            + temporaryName, e)))
+                                                    .then(renameAfterRedeploy(() -> getCloudFoundryClient().applicationsV2()
+                                                                    .update(UpdateApplicationRequest.builder()
+                                                                            .applicationId(newId)
+                                                                            .name(applicationName)
+                                                                            .build())
+                                                                    .then(),
+                                                            applicationName, temporaryName, RENAME_ATTEMPTS, RENAME_RETRY_DELAY))));
+                        }))
+                .timeout(getOperationsTimeout(setup));
     }
 
-    @Override
-    public void release(MachineLocation machine) {
-        String applicationName = machine.config().get(CloudFoundryLocationConfig.APPLICATION_NAME);
+    /**
+     * Gives the new version of a redeployed application the name of the application, retrying a
+     * few times as the old version has only just been deleted; if it still fails, the error says
+     * which name the new version is left with.
+     */
+    static Mono<Void> renameAfterRedeploy(final Supplier<Mono<Void>> rename, final String applicationName,
+            final String temporaryName, final int attempts, final Duration retryDelay) {
+        final AtomicInteger attempt = new AtomicInteger(1);
+        return Mono.defer(rename)
+                .retryWhen(errors -> errors.flatMap(e -> attempt.getAndIncrement() < attempts
+                        ? Mono.delay(java.time.Duration.ofMillis(retryDelay.toMilliseconds()))
+                        : Mono.<Long>error(e)))
+                .otherwise(e -> Mono.error(new IllegalStateException("Cannot rename the new version of " + applicationName
+                        + ", which is left named " + temporaryName, e)));
+    }
+
+    /**
+     * Maps the routes to the second application, then unmaps them from the first one. Routes are
+     * mapped again when rolling back, so errors mapping an already mapped route are ignored.
+     */
+    private Mono<Void> switchRoutes(List<String> routeIds, final String fromApplicationId, final String toApplicationId) {
+        CloudFoundryClient client = getCloudFoundryClient();
+        return Flux.fromIterable(routeIds)
+                .flatMap(routeId -> client.applicationsV2()
+                        .associateRoute(AssociateApplicationRouteRequest.builder()
+                                .applicationId(toApplicationId)
+                                .routeId(routeId)
+                                .build())
+                        .then())
+                .then()
+                .then(Flux.fromIterable(routeIds)
+                        .flatMap(routeId -> client.applicationsV2()
+                                .removeRoute(RemoveApplicationRouteRequest.builder()
+                                        .applicationId(fromApplicationId)
+                                        .routeId(routeId)
+                                        .build()))
+                        .then());
+    }
 
-        List<ServiceInstanceSummary> serviceInstanceSummaries = getCloudFoundryOperations().services().listInstances().collectList().block();
-        List<String> instancesToBeDeleted = Lists.newArrayList();
+    /**
+     * Unbinds the services from the application and deletes it, leaving the services and routes.
+     */
+    private Mono<Void> deleteApplicationKeepingServices(final String applicationName, final String applicationId,
+            List<String> serviceInstanceNames) {
+        return Flux.fromIterable(serviceInstanceNames)
+                .flatMap(serviceInstanceName -> getCloudFoundryOperations().services()
+                        .unbind(UnbindServiceInstanceRequest.builder()
+                                .applicationName(applicationName)
+                                .serviceInstanceName(serviceInstanceName)
+                                .build()))
+                .then()
+                .then(getCloudFoundryClient().applicationsV2()
+                        .delete(DeleteApplicationRequest.builder().applicationId(applicationId).build()));
+    }
 
-        for (ServiceInstanceSummary serviceInstanceSummary : serviceInstanceSummaries) {
-            for (String appName : serviceInstanceSummary.getApplications()) {
-                if (applicationName.equalsIgnoreCase(appName)) {
-                    instancesToBeDeleted.add(serviceInstanceSummary.getName());
+    /**
+     * Records how long the operation took in the durations, published on the entity.
+     */
+    private static <T> Mono<T> phase(final Map<String, Duration> durations, final Entity entity, final String phase,
+            final Mono<T> operation) {
+        return Mono.defer(() -> {
+            final Stopwatch stopwatch = Stopwatch.createStarted();
+            return operation.doOnSuccess(result -> {
+                synchronized (durations) {
+                    durations.put(phase, Duration.millis(stopwatch.elapsed(TimeUnit.MILLISECONDS)));
+                    entity.sensors().set(CloudFoundryLocationSensors.REDEPLOY_DURATIONS, ImmutableMap.copyOf(durations));
                 }
-            }
+            });
+        });
+    }
+
+    /**
+     * Changes the number of instances of the application of the machine through the scale API:
+     * instances are added or removed without restarting the others. Completes with the
+     * application as updated by the platform.
+     */
+    public Mono<ApplicationEntity> scaleInstances(MachineLocation machine, int instances) {
+        return updateApplication(machine, UpdateApplicationRequest.builder().instances(instances), false);
+    }
+
+    /**
+     * Changes the memory and/or disk quota (MB) of the application of the machine; if it is started,
+     * its instances are then restarted by a rolling restart to apply them, without restaging it.
+     */
+    public Mono<ApplicationEntity> resize(MachineLocation machine, Integer memory, Integer diskQuota) {
+        return updateApplication(machine, UpdateApplicationRequest.builder().memory(memory).diskQuota(diskQuota), true);
+    }
+
+    /**
+     * Replaces the environment of the application of the machine; if it is started, its instances
+     * are then restarted by a rolling restart to see it, without restaging it.
+     */
+    public Mono<ApplicationEntity> updateEnvironment(MachineLocation machine, Map<String, ?> environment) {
+        return updateApplication(machine, UpdateApplicationRequest.builder().environmentJsons(environment), true);
+    }
+
+    /**
+     * The usage statistics of the running instances of the application of the machine, by instance index.
+     */
+    public Mono<Map<String, InstanceStatistics>> getInstanceStatistics(MachineLocation machine) {
+        return getApplicationId(machine.config().get(APPLICATION_NAME), machine.config().get(APPLICATION_ID))
+                .then(applicationId -> getCloudFoundryClient().applicationsV2()
+                        .statistics(ApplicationStatisticsRequest.builder().applicationId(applicationId).build()))
+                .map(ApplicationStatisticsResponse::getInstances)
+                .timeout(getOperationsTimeout(config().getBag()));
+    }
+
+    private Mono<ApplicationEntity> updateApplication(MachineLocation machine, final UpdateApplicationRequest.Builder request,
+            final boolean restart) {
+        final ConfigBag setup = config().getBag();
+        return getApplicationId(machine.config().get(APPLICATION_NAME), machine.config().get(APPLICATION_ID))
+                .then(applicationId -> getCloudFoundryClient().applicationsV2()
+                        .update(request.applicationId(applicationId).build())
+                        .then(response -> restart && STARTED.equals(response.getEntity().getState())
+                                ? newRollingRestart(getEntity(machine), null, setup)
+                                        .restart(applicationId)
+                                        .then(Mono.just(response.getEntity()))
+                                : Mono.just(response.getEntity())))
+                .timeout(getOperationsTimeout(setup));
+    }
+
+    /**
+     * Restarts the instances of the application of the machine in batches of at most
+     * {@code maxUnavailable} instances, or {@link #RESTART_MAX_UNAVAILABLE} if null.
+     */
+    public Mono<Void> rollingRestart(MachineLocation machine, Integer maxUnavailable) {
+        ConfigBag setup = config().getBag();
+        return getApplicationId(machine.config().get(APPLICATION_NAME), machine.config().get(APPLICATION_ID))
+                .then(applicationId -> newRollingRestart(getEntity(machine), maxUnavailable, setup).restart(applicationId))
+                .timeout(getOperationsTimeout(setup));
+    }
+
+    /**
+     * A rolling restart publishing its progress and the duration of each of its batches on the entity.
+     */
+    private RollingRestart newRollingRestart(final Entity entity, Integer maxUnavailable, ConfigBag setup) {
+        final List<Duration> batchDurations = Collections.synchronizedList(Lists.<Duration>newArrayList());
+        entity.sensors().set(CloudFoundryLocationSensors.ROLLING_RESTART_PROGRESS, 0.0);
+        entity.sensors().set(CloudFoundryLocationSensors.ROLLING_RESTART_BATCH_DURATIONS, ImmutableList.<Duration>of());
+        return new RollingRestart(getCloudFoundryClient(setup), setup.get(INSTANCES_POLL_PERIOD),
+                MoreObjects.firstNonNull(maxUnavailable, setup.get(RESTART_MAX_UNAVAILABLE)), setup.get(RESTART_BATCH_TIMEOUT),
+                (restartedInstances, instances, batchDuration) -> {
+                    batchDurations.add(batchDuration);
+                    entity.sensors().set(CloudFoundryLocationSensors.ROLLING_RESTART_PROGRESS,
+                            (double) restartedInstances / instances);
+                    entity.sensors().set(CloudFoundryLocationSensors.ROLLING_RESTART_BATCH_DURATIONS,
+                            ImmutableList.copyOf(batchDurations));
+                });
+    }
+
+    private Entity getEntity(MachineLocation machine) {
+        return lookUpEntityFromCallerContext(machine.config().get(CALLER_CONTEXT));
+    }
+
+    private Mono<String> getApplicationId(String applicationName, String applicationId) {
+        return (applicationId != null)
+                ? Mono.just(applicationId)
+                : getApplicationDetail(applicationName).map(ApplicationDetail::getId);
+    }
+
+    @Override
+    public void release(MachineLocation machine) {
+        final String applicationName = machine.config().get(CloudFoundryLocationConfig.APPLICATION_NAME);
+        if (getConfig(RELEASE_ASYNC)) {
+            releaseAsync(machine).subscribe(
+                    v -> LOG.debug("Released application {}", applicationName),
+                    e -> LOG.warn("Error releasing application " + applicationName, e));
+        } else {
+            releaseAsync(machine).block();
         }
+    }
 
-        getCloudFoundryOperations().applications().delete(DeleteApplicationRequest.builder()
-                .name(applicationName)
-                .deleteRoutes(true)
-                .build()
-        ).block();
-        // delete service instances bound to the application
-        for (String name : instancesToBeDeleted) {
-            getCloudFoundryOperations().services().deleteInstance(
-                    DeleteServiceInstanceRequest.builder()
-                            .name(name).build())
-                    .block();
+    /**
+     * Non-blocking variant of {@link #release(MachineLocation)}, bounded by {@link #OPERATIONS_TIMEOUT}.
+     * All the {@link #APPLICATION_NAMES applications} of the machine are released concurrently.
+     */
+    public Mono<Void> releaseAsync(MachineLocation machine) {
+        final String applicationName = machine.config().get(CloudFoundryLocationConfig.APPLICATION_NAME);
+        final String applicationId = machine.config().get(CloudFoundryLocationConfig.APPLICATION_ID);
+        List<String> applicationNames = machine.config().get(CloudFoundryLocationConfig.APPLICATION_NAMES);
+        final ConfigBag setup = config().getBag();
+
+        if (applicationNames == null || applicationNames.isEmpty()) {
+            applicationNames = ImmutableList.of(applicationName);
         }
+        getApplicationsPoller().unregister(applicationName);
+        return Flux.fromIterable(applicationNames)
+                .flatMap(name -> releaseApplication(name, name.equals(applicationName) ? applicationId : null, setup),
+                        setup.get(APPLICATIONS_PARALLELISM))
+                .then()
+                .timeout(getOperationsTimeout(setup));
+    }
+
+    /**
+     * Only the routes and service bindings of the application are looked up; they are unbound and
+     * deleted concurrently before the application, and then the services are deleted.
+     */
+    private Mono<Void> releaseApplication(final String applicationName, String applicationId, ConfigBag setup) {
+        final int parallelism = setup.get(SERVICES_PARALLELISM);
+
+        return getApplicationId(applicationName, applicationId)
+                .then(appId -> getCloudFoundryClient().applicationsV2()
+                        .summary(SummaryApplicationRequest.builder().applicationId(appId).build())
+                        .then(summary -> {
+                            final List<String> serviceInstanceNames = Lists.newArrayList();
+                            for (org.cloudfoundry.client.v2.serviceinstances.ServiceInstance serviceInstance : summary.getServices()) {
+                                serviceInstanceNames.add(serviceInstance.getName());
+                            }
+                            Mono<Void> unbound = Flux.fromIterable(serviceInstanceNames)
+                                    .flatMap(serviceInstanceName -> getCloudFoundryOperations().services()
+                                            .unbind(UnbindServiceInstanceRequest.builder()
+                                                    .applicationName(applicationName)
+                                                    .serviceInstanceName(serviceInstanceName)
+                                                    .build()), parallelism)
+                                    .then();
+                            Mono<Void> routesDeleted = Flux.fromIterable(summary.getRoutes())
+                                    .flatMap(route -> getCloudFoundryClient().routes()
+                                            .delete(DeleteRouteRequest.builder().routeId(route.getId()).build()), parallelism)
+                                    .then();
+                            return Mono.when(unbound, routesDeleted)
+                                    .then(getCloudFoundryClient().applicationsV2()
+                                            .delete(DeleteApplicationRequest.builder().applicationId(appId).build()))
+                                    // delete service instances bound to the application
+                                    .then(newServiceInstanceProvisioner(setup).delete(serviceInstanceNames));
+                        }));
     }
 
     protected boolean isVanillaCloudFoundryApplication(Entity entity) {
@@ -322,37 +941,39 @@ public class CloudFoundryLocation extends AbstractLocation implements MachinePro
         return entity.getEntityType().getName().equalsIgnoreCase(CloudFoundryAppFromManifest.class.getName());
     }
 
-    private List<String> createInstanceServices(List<Map<String, Object>> services) {
-        List<String> serviceInstanceNames = Lists.newArrayList();
-        for (Map<String, Object> service : services) {
-            for (Map.Entry<String, Object> stringObjectEntry : service.entrySet()) {
-                String serviceInstanceName = ((Map<String, String>)stringObjectEntry.getValue()).get("instanceName");
-                serviceInstanceNames.add(serviceInstanceName);
-                String planName = ((Map<String, String>)stringObjectEntry.getValue()).get("plan");
-                Map<String, ?> parameters = (Map<String, ?>) ((Map<String, Object>)stringObjectEntry.getValue()).get("parameters");
-                try {
-                    getCloudFoundryOperations().services()
-                            .createInstance(CreateServiceInstanceRequest.builder()
-                                    .serviceName(stringObjectEntry.getKey())
-                                    .serviceInstanceName(serviceInstanceName)
-                                    .planName(planName)
-                                    .parameters(parameters)
-                                    .build())
-                            .block();
-
-                } catch (Exception e) {
-                    LOG.error("Error creating the service {}, the error was {}", serviceInstanceName, e);
-                    throw new PropagatedRuntimeException(e);
+    private Mono<List<String>> createInstanceServices(List<Map<String, Object>> services, ConfigBag setup) {
+        List<CreateServiceInstanceRequest> requests = Lists.newArrayList();
+        if (services != null) {
+            for (Map<String, Object> service : services) {
+                for (Map.Entry<String, Object> stringObjectEntry : service.entrySet()) {
+                    String serviceInstanceName = ((Map<String, String>)stringObjectEntry.getValue()).get("instanceName");
+                    String planName = ((Map<String, String>)stringObjectEntry.getValue()).get("plan");
+                    Map<String, ?> parameters = (Map<String, ?>) ((Map<String, Object>)stringObjectEntry.getValue()).get("parameters");
+                    requests.add(CreateServiceInstanceRequest.builder()
+                            .serviceName(stringObjectEntry.getKey())
+                            .serviceInstanceName(serviceInstanceName)
+                            .planName(planName)
+                            .parameters(parameters)
+                            .build());
                 }
             }
         }
-        return serviceInstanceNames;
+        return newServiceInstanceProvisioner(setup).create(requests);
+    }
+
+    private ServiceInstanceProvisioner newServiceInstanceProvisioner(ConfigBag setup) {
+        return new ServiceInstanceProvisioner(getCloudFoundryOperations(),
+                setup.get(SERVICES_PARALLELISM), setup.get(SERVICES_POLL_PERIOD));
     }
 
-    private PushApplicationRequest createPushApplicationRequest(String applicationName, int memory, int diskQuota, Path application, String buildpack, String domain, int instances) {
+    private PushApplicationRequest createPushApplicationRequest(String applicationName, int memory, int diskQuota, Path application,
+            String buildpack, String domain, int instances, String healthCheckType) {
+        ApplicationHealthCheck healthCheck = healthCheckType != null
+                ? ApplicationHealthCheck.valueOf(healthCheckType.toUpperCase())
+                : ApplicationHealthCheck.PORT;
         return PushApplicationRequest.builder()
                 .name(applicationName)
-                .healthCheckType(ApplicationHealthCheck.NONE) // TODO is it needed?
+                .healthCheckType(healthCheck)
                 .randomRoute(true)
                 .buildpack(buildpack)
                 .application(application)
@@ -363,39 +984,66 @@ public class CloudFoundryLocation extends AbstractLocation implements MachinePro
                 .build();
     }
 
-    private ApplicationDetail getApplicationDetail(String applicationName) {
+    private Mono<ApplicationDetail> getApplicationDetail(String applicationName) {
         return getCloudFoundryOperations()
                 .applications().get(
-                        GetApplicationRequest.builder().name(applicationName).build())
-                .block();
+                        GetApplicationRequest.builder().name(applicationName).build());
     }
 
-    private void bindServices(String applicationName, List<String> serviceInstanceNames) {
-        for (String serviceInstanceName : serviceInstanceNames) {
-            try {
-                getCloudFoundryOperations().services()
+    private Mono<Void> bindServices(final String applicationName, List<String> serviceInstanceNames, ConfigBag setup) {
+        return Flux.fromIterable(serviceInstanceNames)
+                .flatMap(serviceInstanceName -> getCloudFoundryOperations().services()
                         .bind(
                                 BindServiceInstanceRequest.builder()
                                         .applicationName(applicationName)
                                         .serviceInstanceName(serviceInstanceName)
                                         .build()
-                        ).block();
-            } catch (Exception e) {
-                LOG.error("Error getting environment for application {} the error was ", applicationName, e);
-                throw new PropagatedRuntimeException(e);
-            }
-        }
+                        ), setup.get(SERVICES_PARALLELISM))
+                .doOnError(e -> LOG.error("Error binding services to application {} the error was ", applicationName, e))
+                .then();
+    }
+
+    /**
+     * Starts the application, staging it if needed, and waits for its first instance to be healthy.
+     */
+    private Mono<Void> startApplication(final String applicationName, final Entity entity, final ConfigBag setup) {
+        return getApplicationId(applicationName, null)
+                .then(applicationId -> setApplicationState(applicationId, STARTED)
+                        .then(awaitFirstRunning(applicationName, applicationId, entity, setup)));
     }
 
-    private void restartApplication(String applicationName) {
-        getCloudFoundryOperations().applications()
-                .restart(
-                        RestartApplicationRequest.builder()
-                                .name(applicationName)
-                                .build()
-                ).block();
+    /**
+     * Restarts the application without staging it again: either a {@link #ROLLING_RESTART rolling restart},
+     * or a stop and start which waits for its first instance to be healthy.
+     */
+    private Mono<Void> restartApplication(final String applicationName, final Entity entity, final ConfigBag setup) {
+        return getApplicationId(applicationName, null)
+                .then(applicationId -> setup.get(ROLLING_RESTART)
+                        ? newRollingRestart(entity, null, setup).restart(applicationId)
+                        : setApplicationState(applicationId, STOPPED)
+                                .then(setApplicationState(applicationId, STARTED))
+                                .then(awaitFirstRunning(applicationName, applicationId, entity, setup)));
     }
 
+    private Mono<Void> setApplicationState(String applicationId, String state) {
+        return getCloudFoundryClient().applicationsV2()
+                .update(UpdateApplicationRequest.builder().applicationId(applicationId).state(state).build())
+                .then();
+    }
+
+    /**
+     * Publishes how long it took from the start of the application until its first instance was healthy.
+     */
+    private Mono<Void> awaitFirstRunning(final String applicationName, final String applicationId, final Entity entity,
+            final ConfigBag setup) {
+        return Mono.defer(() -> {
+            final Stopwatch stopwatch = Stopwatch.createStarted();
+            return new ReadinessWaiter(getCloudFoundryClient(setup), getCloudFoundryOperations(setup), setup.get(INSTANCES_POLL_PERIOD))
+                    .awaitFirstRunning(applicationName, applicationId)
+                    .doOnSuccess(v -> entity.sensors().set(CloudFoundryLocationSensors.TIME_TO_FIRST_HEALTHY,
+                            Duration.millis(stopwatch.elapsed(TimeUnit.MILLISECONDS))));
+        });
+    }
 
     @Override
     public MachineProvisioningLocation<MachineLocation> newSubLocation(Map<?, ?> map) {
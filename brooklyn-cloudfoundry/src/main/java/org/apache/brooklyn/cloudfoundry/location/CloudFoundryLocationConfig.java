@@ -18,14 +18,18 @@
  */
 package org.apache.brooklyn.cloudfoundry.location;
 
+import java.util.List;
+
 import org.apache.brooklyn.config.ConfigKey;
 import org.apache.brooklyn.core.config.ConfigKeys;
 import org.apache.brooklyn.core.location.LocationConfigKeys;
 import org.apache.brooklyn.core.location.cloud.CloudLocationConfig;
 import org.apache.brooklyn.util.core.flags.SetFromFlag;
+import org.apache.brooklyn.util.os.Os;
 import org.apache.brooklyn.util.time.Duration;
 
 import com.google.common.base.Predicates;
+import com.google.common.reflect.TypeToken;
 
 public interface CloudFoundryLocationConfig extends CloudLocationConfig {
 
@@ -46,7 +50,14 @@ public interface CloudFoundryLocationConfig extends CloudLocationConfig {
             .description("CloudFoundry application name")
             .constraint(Predicates.<String>notNull())
             .build();
+
+    ConfigKey<String> APPLICATION_ID = ConfigKeys.newStringConfigKey("application id",
+            "CloudFoundry application GUID");
     
+    ConfigKey<List<String>> APPLICATION_NAMES = ConfigKeys.newConfigKey(new TypeToken<List<String>>() {},
+            "application names", "All the CloudFoundry applications deployed for a machine, such as the applications " +
+                    "of a multi-application manifest; they are deleted when the machine is released");
+
     ConfigKey<String> CF_ORG = ConfigKeys.newStringConfigKey("org",
             "CloudFoundry Organization.");
 
@@ -61,5 +72,97 @@ public interface CloudFoundryLocationConfig extends CloudLocationConfig {
     ConfigKey<Duration> OPERATIONS_TIMEOUT = ConfigKeys.newConfigKey(Duration.class,
             "operations.timeout", "Timeout for cloudfoundry operations", Duration.minutes(5));
 
+    ConfigKey<Duration> PLATFORM_INFO_TTL = ConfigKeys.newConfigKey(Duration.class,
+            "platformInfo.ttl", "How long the platform information of the endpoint (/v2/info) is used " +
+                    "before being refreshed in the background", Duration.minutes(10));
+
+    ConfigKey<Boolean> START_AFTER_BINDING = ConfigKeys.newBooleanConfigKey(
+            "deployment.startAfterBinding", "Whether applications are pushed without being started, " +
+                    "and started once all their services are bound; otherwise they are started by the push " +
+                    "and restarted after binding", true);
+
+    ConfigKey<Integer> SERVICES_PARALLELISM = ConfigKeys.newIntegerConfigKey(
+            "services.parallelism", "Maximum number of service instances created or deleted concurrently " +
+                    "for an application", 4);
+
+    ConfigKey<Duration> SERVICES_POLL_PERIOD = ConfigKeys.newConfigKey(Duration.class,
+            "services.pollPeriod", "Initial period for polling service instances whose broker provisions " +
+                    "them asynchronously; it is doubled on each poll up to 30 seconds", Duration.seconds(2));
+
+    ConfigKey<Duration> INSTANCES_POLL_PERIOD = ConfigKeys.newConfigKey(Duration.class,
+            "instances.pollPeriod", "Initial period for polling application instances while they are restarted; " +
+                    "it is doubled on each poll up to 10 seconds", Duration.seconds(1));
+
+    ConfigKey<Boolean> ROLLING_RESTART = ConfigKeys.newBooleanConfigKey(
+            "restart.rolling", "Whether applications restarted after their services are bound are restarted " +
+                    "in batches of restart.maxUnavailable instances; otherwise they are stopped and started, " +
+                    "which is an outage; instances which crashed before the restart, for example because " +
+                    "their services were not bound yet, do not hold up the other batches", true);
+
+    ConfigKey<Integer> RESTART_MAX_UNAVAILABLE = ConfigKeys.newIntegerConfigKey(
+            "restart.maxUnavailable", "Maximum number of instances of an application restarted together " +
+                    "by a rolling restart; the next batch waits for all the instances to be running", 1);
+
+    ConfigKey<Duration> RESTART_BATCH_TIMEOUT = ConfigKeys.newConfigKey(Duration.class,
+            "restart.batchTimeout", "How long a batch of a rolling restart may take until all the instances " +
+                    "are running again, after which the restart fails", Duration.minutes(5));
+
+    ConfigKey<Integer> APPLICATIONS_PARALLELISM = ConfigKeys.newIntegerConfigKey(
+            "applications.parallelism", "Maximum number of applications of a manifest, or machines of a batch, " +
+                    "deployed concurrently", 4);
+
+    ConfigKey<Duration> APPLICATIONS_POLL_PERIOD = ConfigKeys.newConfigKey(Duration.class,
+            "applications.pollPeriod", "Period for polling the applications of the space to update the sensors " +
+                    "of the entities deployed by the location; it is doubled while nothing changes, up to " +
+                    "applications.maxPollPeriod", Duration.seconds(10));
+
+    ConfigKey<Duration> APPLICATIONS_MAX_POLL_PERIOD = ConfigKeys.newConfigKey(Duration.class,
+            "applications.maxPollPeriod", "Maximum period for polling the applications of the space",
+            Duration.minutes(2));
+
+    ConfigKey<Boolean> RELEASE_ASYNC = ConfigKeys.newBooleanConfigKey(
+            "release.async", "Whether release returns immediately, deleting the application, its routes " +
+                    "and its services in the background", false);
+
+    ConfigKey<Integer> CONNECTION_POOL_SIZE = ConfigKeys.newIntegerConfigKey(
+            "connection.poolSize", "Maximum number of connections to the endpoint, shared by all " +
+                    "the locations targeting it; if not set the client default is used");
+
+    ConfigKey<Boolean> CONNECTION_KEEP_ALIVE = ConfigKeys.newBooleanConfigKey(
+            "connection.keepAlive", "Whether connections to the endpoint are kept alive between requests", true);
+
+    ConfigKey<Duration> CONNECT_TIMEOUT = ConfigKeys.newConfigKey(Duration.class,
+            "connection.connectTimeout", "Timeout for establishing a (TLS) connection to the endpoint",
+            Duration.seconds(30));
+
+    ConfigKey<Duration> READ_TIMEOUT = ConfigKeys.newConfigKey(Duration.class,
+            "connection.readTimeout", "Timeout for reading a response from the endpoint", Duration.minutes(1));
+
+    ConfigKey<Boolean> RESOURCE_MATCHING = ConfigKeys.newBooleanConfigKey(
+            "bits.resourceMatching", "Whether only the application files unknown to the Cloud Controller " +
+                    "are uploaded; otherwise the whole artifact is pushed, which rules out artifact excludes", true);
+
+    ConfigKey<String> FINGERPRINT_INDEX_DIR = ConfigKeys.newStringConfigKey(
+            "bits.fingerprintIndexDir", "Directory of the local index of artifact file fingerprints, " +
+                    "used to avoid hashing unchanged artifacts again",
+            Os.mergePaths(Os.home(), ".brooklyn", "cloudfoundry", "fingerprints"));
+
+    ConfigKey<Boolean> DROPLET_REUSE = ConfigKeys.newBooleanConfigKey(
+            "deployment.reuseDroplets", "Whether an application pushed with the same artifact, buildpack, stack " +
+                    "and environment as one already staged in the space gets a copy of its droplet instead of " +
+                    "being staged; requires bits.resourceMatching. A batch is only staged once when both are " +
+                    "enabled; otherwise each of its members is pushed and staged separately", true);
+
+    ConfigKey<String> ARTIFACT_CACHE_DIR = ConfigKeys.newStringConfigKey(
+            "artifacts.cacheDir", "Directory where remote application artifacts are downloaded",
+            Os.mergePaths(Os.home(), ".brooklyn", "cloudfoundry", "artifacts"));
+
+    ConfigKey<Long> ARTIFACT_CACHE_MAX_SIZE = ConfigKeys.newLongConfigKey(
+            "artifacts.cacheMaxSize", "Size in bytes beyond which the least recently used artifacts " +
+                    "are deleted from the download cache", 2L * 1024 * 1024 * 1024);
+
+    ConfigKey<String> MAVEN_REPOSITORY_URL = ConfigKeys.newStringConfigKey(
+            "artifacts.mavenRepository", "Maven repository from which mvn: artifacts are downloaded",
+            "https://repo1.maven.org/maven2");
 
 }
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.brooklyn.api.sensor.AttributeSensor;
+import org.apache.brooklyn.core.sensor.Sensors;
+import org.apache.brooklyn.util.time.Duration;
+
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Sensors published by {@link CloudFoundryLocation} on the entities it provisions.
+ */
+public interface CloudFoundryLocationSensors {
+
+    AttributeSensor<Long> TOKEN_REFRESH_COUNT = Sensors.newLongSensor(
+            "cloudfoundry.token.refreshCount", "Number of tokens obtained from UAA for the credentials of the location");
+
+    AttributeSensor<Duration> TOKEN_ACQUISITION_LATENCY = Sensors.newSensor(Duration.class,
+            "cloudfoundry.token.acquisitionLatency", "Time taken to obtain the last token from UAA");
+
+    AttributeSensor<String> PLATFORM_API_VERSION = Sensors.newStringSensor(
+            "cloudfoundry.platform.apiVersion", "Cloud Controller API version of the endpoint");
+
+    AttributeSensor<String> PLATFORM_SSH_ENDPOINT = Sensors.newStringSensor(
+            "cloudfoundry.platform.sshEndpoint", "Endpoint of the ssh proxy for applications");
+
+    AttributeSensor<String> PLATFORM_SSH_HOST_KEY_FINGERPRINT = Sensors.newStringSensor(
+            "cloudfoundry.platform.sshHostKeyFingerprint", "Host key fingerprint of the ssh proxy for applications");
+
+    AttributeSensor<String> PLATFORM_AUTHORIZATION_ENDPOINT = Sensors.newStringSensor(
+            "cloudfoundry.platform.authorizationEndpoint", "UAA endpoint");
+
+    AttributeSensor<String> PLATFORM_TOKEN_ENDPOINT = Sensors.newStringSensor(
+            "cloudfoundry.platform.tokenEndpoint", "UAA token endpoint");
+
+    AttributeSensor<String> PLATFORM_LOGGING_ENDPOINT = Sensors.newStringSensor(
+            "cloudfoundry.platform.loggingEndpoint", "Doppler logging endpoint");
+
+    AttributeSensor<Duration> PUSH_DURATION = Sensors.newSensor(Duration.class,
+            "cloudfoundry.deployment.pushDuration", "Time taken to push the application");
+
+    AttributeSensor<Duration> SERVICES_DURATION = Sensors.newSensor(Duration.class,
+            "cloudfoundry.deployment.servicesDuration", "Time taken to create the service instances of the application");
+
+    AttributeSensor<Duration> BIND_DURATION = Sensors.newSensor(Duration.class,
+            "cloudfoundry.deployment.bindDuration", "Time taken to bind the services to the application");
+
+    AttributeSensor<Duration> START_DURATION = Sensors.newSensor(Duration.class,
+            "cloudfoundry.deployment.startDuration", "Time taken to (re)start the application until its instances are running");
+
+    AttributeSensor<Duration> TIME_TO_FIRST_HEALTHY = Sensors.newSensor(Duration.class,
+            "cloudfoundry.deployment.timeToFirstHealthy", "Time taken from (re)starting the application until " +
+                    "its first instance was healthy");
+
+    AttributeSensor<Map<String, String>> APPLICATION_PHASES = Sensors.newSensor(new TypeToken<Map<String, String>>() {},
+            "cloudfoundry.deployment.applicationPhases", "Deployment phase of each application of the entity: " +
+                    "waiting, pushing, binding, starting, running or failed");
+
+    AttributeSensor<Map<String, Duration>> APPLICATION_DURATIONS = Sensors.newSensor(new TypeToken<Map<String, Duration>>() {},
+            "cloudfoundry.deployment.applicationDurations", "Time taken to deploy each application of the entity, " +
+                    "from the end of the wait for the applications it depends on until it is running");
+
+    AttributeSensor<Map<String, Duration>> REDEPLOY_DURATIONS = Sensors.newSensor(new TypeToken<Map<String, Duration>>() {},
+            "cloudfoundry.redeploy.durations", "Time taken by each phase of the last blue-green redeploy: " +
+                    "push, start, switch (of the routes) and cleanup (of the old version)");
+
+    AttributeSensor<Double> ROLLING_RESTART_PROGRESS = Sensors.newDoubleSensor(
+            "cloudfoundry.restart.progress", "Fraction of the instances restarted by the current or last rolling restart");
+
+    AttributeSensor<List<Duration>> ROLLING_RESTART_BATCH_DURATIONS = Sensors.newSensor(new TypeToken<List<Duration>>() {},
+            "cloudfoundry.restart.batchDurations", "Time taken by each batch of the current or last rolling restart, " +
+                    "until all the instances were running again");
+
+    AttributeSensor<Long> BITS_ORIGINAL_BYTES = Sensors.newLongSensor(
+            "cloudfoundry.bits.originalBytes", "Size of all the application files of the last push, " +
+                    "including the ones ignored through .cfignore and the exclude list");
+
+    AttributeSensor<Long> BITS_UPLOADED_BYTES = Sensors.newLongSensor(
+            "cloudfoundry.bits.uploadedBytes", "Size of the application files uploaded by the last push");
+
+    AttributeSensor<Long> BITS_SKIPPED_BYTES = Sensors.newLongSensor(
+            "cloudfoundry.bits.skippedBytes", "Size of the application files not uploaded by the last push " +
+                    "because the Cloud Controller already had them");
+
+    AttributeSensor<Long> STAGING_AVOIDED_COUNT = Sensors.newLongSensor(
+            "cloudfoundry.deployment.stagingAvoided", "Number of applications deployed by the location " +
+                    "with a copy of an existing droplet rather than being staged");
+
+}
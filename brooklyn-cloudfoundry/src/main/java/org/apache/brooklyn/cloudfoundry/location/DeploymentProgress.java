@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.util.time.Duration;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Publishes the phase and the deployment time of each application deployed for an entity as the
+ * {@link CloudFoundryLocationSensors#APPLICATION_PHASES} and {@link CloudFoundryLocationSensors#APPLICATION_DURATIONS} maps.
+ */
+class DeploymentProgress {
+
+    static final String WAITING = "waiting";
+    static final String PUSHING = "pushing";
+    static final String BINDING = "binding";
+    static final String STARTING = "starting";
+    static final String RUNNING = "running";
+    static final String FAILED = "failed";
+
+    private final Entity entity;
+    private final Map<String, String> phases = Maps.newLinkedHashMap();
+    private final Map<String, Duration> durations = Maps.newLinkedHashMap();
+    private final Map<String, Stopwatch> stopwatches = Maps.newHashMap();
+
+    DeploymentProgress(Entity entity) {
+        this.entity = entity;
+    }
+
+    synchronized void phase(String applicationName, String phase) {
+        if (PUSHING.equals(phase)) {
+            stopwatches.put(applicationName, Stopwatch.createStarted());
+        }
+        phases.put(applicationName, phase);
+        entity.sensors().set(CloudFoundryLocationSensors.APPLICATION_PHASES, ImmutableMap.copyOf(phases));
+        Stopwatch stopwatch = stopwatches.get(applicationName);
+        if ((RUNNING.equals(phase) || FAILED.equals(phase)) && stopwatch != null) {
+            durations.put(applicationName, Duration.millis(stopwatch.elapsed(TimeUnit.MILLISECONDS)));
+            entity.sensors().set(CloudFoundryLocationSensors.APPLICATION_DURATIONS, ImmutableMap.copyOf(durations));
+        }
+    }
+}
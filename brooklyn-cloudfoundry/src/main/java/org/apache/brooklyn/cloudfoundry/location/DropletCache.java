@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.brooklyn.cloudfoundry.location.FingerprintIndex.FileFingerprint;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Records which application holds the droplet staged from a given artifact, buildpack, stack
+ * and environment in a space, so that later pushes of the same inputs can copy that droplet
+ * instead of staging again. The application rather than the droplet GUID is recorded, its
+ * current droplet being looked up when reused, so that a droplet replaced by a restage or
+ * deleted with its application is never handed out.
+ */
+class DropletCache {
+
+    static final DropletCache INSTANCE = new DropletCache();
+
+    private final ConcurrentMap<String, String> applications = new ConcurrentHashMap<>();
+
+    /**
+     * The key of the droplet staged from the given inputs in the given space.
+     */
+    static String key(String apiHost, String space, List<FileFingerprint> files, String buildpack, String stack,
+            Map<String, ?> environment) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, apiHost);
+        putString(hasher, space);
+        putString(hasher, buildpack);
+        putString(hasher, stack);
+        SortedMap<String, ?> sorted = environment != null
+                ? ImmutableSortedMap.copyOf(environment)
+                : ImmutableSortedMap.<String, Object>of();
+        for (Map.Entry<String, ?> entry : sorted.entrySet()) {
+            putString(hasher, entry.getKey());
+            putString(hasher, String.valueOf(entry.getValue()));
+        }
+        for (FileFingerprint file : files) {
+            putString(hasher, file.path);
+            putString(hasher, file.sha1);
+            putString(hasher, file.mode);
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        String nonNull = Strings.nullToEmpty(value);
+        hasher.putInt(nonNull.length()).putString(nonNull, Charsets.UTF_8);
+    }
+
+    String get(String key) {
+        return applications.get(key);
+    }
+
+    /**
+     * Records that the application is being staged from the inputs of the key. Any previous key
+     * of the application is dropped, as its droplet is about to be replaced.
+     */
+    void put(String key, String applicationId) {
+        applications.values().removeIf(applicationId::equals);
+        applications.put(key, applicationId);
+    }
+
+    void invalidate(String key, String applicationId) {
+        applications.remove(key, applicationId);
+    }
+
+    int size() {
+        return applications.size();
+    }
+}
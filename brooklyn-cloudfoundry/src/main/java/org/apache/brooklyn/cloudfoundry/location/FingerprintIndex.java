@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * SHA-1 fingerprints of the files of an application artifact, which are what Cloud Controller
+ * resource matching is based on. The artifact is either an archive, whose entries are the files,
+ * or a directory. Fingerprints are kept in a local index keyed by path, size and modification time
+ * so that pushing an unchanged artifact again does not hash it again. Files ignored by the
+ * {@link CfIgnore} rules of the application are left out. There is one index per directory,
+ * shared by all the locations using it.
+ */
+class FingerprintIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FingerprintIndex.class);
+
+    static final String DEFAULT_MODE = "644";
+    static final String EXECUTABLE_MODE = "755";
+
+    private static final ConcurrentMap<File, FingerprintIndex> INSTANCES = new ConcurrentHashMap<>();
+
+    private final File directory;
+    private final Striped<Lock> artifactLocks = Striped.lock(16);
+
+    /**
+     * The index kept in the given directory, shared by all the pushes which use it.
+     */
+    static FingerprintIndex of(File directory) {
+        return INSTANCES.computeIfAbsent(directory.getAbsoluteFile(), FingerprintIndex::new);
+    }
+
+    FingerprintIndex(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * The fingerprints of the files of the artifact which are not ignored, according to the
+     * {@link CfIgnore} made of its {@code .cfignore} (if any) and of the given extra patterns.
+     * Concurrent pushes of the same artifact hash it once, the others reading the index it
+     * wrote; different artifacts are fingerprinted in parallel.
+     */
+    Fingerprints fingerprint(Path artifact, List<String> excludes) throws IOException {
+        Lock lock = artifactLocks.get(artifact.toAbsolutePath());
+        lock.lock();
+        try {
+            return fingerprintLocked(artifact, excludes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Fingerprints fingerprintLocked(Path artifact, List<String> excludes) throws IOException {
+        Map<String, FileFingerprint> indexed = read(artifact);
+        if (Files.isDirectory(artifact)) {
+            Path cfIgnore = artifact.resolve(CfIgnore.FILE_NAME);
+            CfIgnore ignore = CfIgnore.of(Files.isRegularFile(cfIgnore) ? new String(Files.readAllBytes(cfIgnore), Charsets.UTF_8) : null, excludes);
+            Fingerprints result = fingerprintDirectory(artifact, indexed, ignore);
+            write(artifact, result.files);
+            return result;
+        }
+        List<FileFingerprint> all = fingerprintArchive(artifact, indexed);
+        write(artifact, all);
+        CfIgnore ignore = CfIgnore.of(readCfIgnore(artifact), excludes);
+        List<FileFingerprint> files = Lists.newArrayList();
+        long originalBytes = 0;
+        for (FileFingerprint file : all) {
+            if (file.path.isEmpty()) continue;
+            originalBytes += file.size;
+            if (!ignore.isIgnoredWithParents(file.path)) files.add(file);
+        }
+        return new Fingerprints(files, originalBytes);
+    }
+
+    private Fingerprints fingerprintDirectory(Path root, Map<String, FileFingerprint> indexed, CfIgnore ignore) throws IOException {
+        List<FileFingerprint> result = Lists.newArrayList();
+        long originalBytes = 0;
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            String path = root.relativize(file).toString().replace(File.separatorChar, '/');
+            long size = Files.size(file);
+            originalBytes += size;
+            if (ignore.isIgnoredWithParents(path)) continue;
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            FileFingerprint known = indexed.get(path);
+            if (known != null && known.size == size && known.modified == modified) {
+                result.add(known);
+            } else {
+                String mode = Files.isExecutable(file) ? EXECUTABLE_MODE : DEFAULT_MODE;
+                try (InputStream in = Files.newInputStream(file)) {
+                    result.add(new FileFingerprint(path, size, modified, sha1(in), mode));
+                }
+            }
+        }
+        return new Fingerprints(result, originalBytes);
+    }
+
+    private List<FileFingerprint> fingerprintArchive(Path archive, Map<String, FileFingerprint> indexed) throws IOException {
+        long size = Files.size(archive);
+        long modified = Files.getLastModifiedTime(archive).toMillis();
+        FileFingerprint marker = indexed.get("");
+        if (marker != null && marker.size == size && marker.modified == modified) {
+            return Lists.newArrayList(indexed.values());
+        }
+        List<FileFingerprint> result = Lists.newArrayList();
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) continue;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    result.add(new FileFingerprint(entry.getName(), entry.getSize(), entry.getTime(), sha1(in), DEFAULT_MODE));
+                }
+            }
+        }
+        // the archive itself, so that a changed archive is detected
+        result.add(new FileFingerprint("", size, modified, "", DEFAULT_MODE));
+        return result;
+    }
+
+    private static String readCfIgnore(Path archive) throws IOException {
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            ZipEntry entry = zip.getEntry(CfIgnore.FILE_NAME);
+            if (entry == null) return null;
+            try (InputStream in = zip.getInputStream(entry)) {
+                return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+            }
+        }
+    }
+
+    private Map<String, FileFingerprint> read(Path artifact) {
+        Map<String, FileFingerprint> result = Maps.newLinkedHashMap();
+        File file = getIndexFile(artifact);
+        if (!file.exists()) return result;
+        try {
+            for (String line : Files.readAllLines(file.toPath(), Charsets.UTF_8)) {
+                List<String> fields = Splitter.on(' ').limit(5).splitToList(line);
+                if (fields.size() != 5) continue;
+                FileFingerprint fingerprint = new FileFingerprint(fields.get(4), Long.parseLong(fields.get(1)),
+                        Long.parseLong(fields.get(2)), fields.get(0), fields.get(3));
+                result.put(fingerprint.path, fingerprint);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Ignoring unreadable fingerprint index " + file, e);
+            result.clear();
+        }
+        return result;
+    }
+
+    private void write(Path artifact, List<FileFingerprint> fingerprints) {
+        File file = getIndexFile(artifact);
+        try {
+            Files.createDirectories(directory.toPath());
+            List<String> lines = Lists.newArrayListWithCapacity(fingerprints.size());
+            for (FileFingerprint fingerprint : fingerprints) {
+                lines.add(Joiner.on(' ').join(fingerprint.sha1, fingerprint.size, fingerprint.modified, fingerprint.mode, fingerprint.path));
+            }
+            Path tmp = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+            Files.write(tmp, lines, Charsets.UTF_8);
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Cannot write fingerprint index " + file + "; artifact will be hashed again on next push", e);
+        }
+    }
+
+    private File getIndexFile(Path artifact) {
+        String key = Hashing.sha1().hashString(artifact.toAbsolutePath().toString(), Charsets.UTF_8).toString();
+        return new File(directory, key);
+    }
+
+    static String sha1(InputStream in) throws IOException {
+        return hash(Hashing.sha1(), in);
+    }
+
+    static String hash(HashFunction function, InputStream in) throws IOException {
+        HashingInputStream hashing = new HashingInputStream(function, in);
+        ByteStreams.copy(hashing, ByteStreams.nullOutputStream());
+        HashCode hash = hashing.hash();
+        return hash.toString();
+    }
+
+    static final class FileFingerprint {
+        final String path;
+        final long size;
+        final long modified;
+        final String sha1;
+        final String mode;
+
+        FileFingerprint(String path, long size, long modified, String sha1, String mode) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.sha1 = sha1;
+            this.mode = mode;
+        }
+    }
+
+    static final class Fingerprints {
+        /** The files which are not ignored. */
+        final List<FileFingerprint> files;
+        /** The size of all the files of the artifact, ignored or not. */
+        final long originalBytes;
+
+        Fingerprints(List<FileFingerprint> files, long originalBytes) {
+            this.files = files;
+            this.originalBytes = originalBytes;
+        }
+    }
+}
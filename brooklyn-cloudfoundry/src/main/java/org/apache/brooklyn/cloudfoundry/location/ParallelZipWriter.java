@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.brooklyn.cloudfoundry.location.FingerprintIndex.FileFingerprint;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.io.LittleEndianDataOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Writes a zip whose entries are deflated in parallel, while the entries already compressed are
+ * written in order by the calling thread. At most {@code window} entries are held in memory at a
+ * time; entries larger than {@link #MAX_BUFFERED_ENTRY_SIZE} are deflated by the calling thread
+ * straight into the zip instead. Only plain (non zip64) archives are written, so at most 65535
+ * entries of less than 4GB in total: see {@link #canWrite(List)}.
+ */
+class ParallelZipWriter {
+
+    private static final ExecutorService DEFLATERS = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setNameFormat("brooklyn-cloudfoundry-deflater-%d").setDaemon(true).build());
+
+    static final long MAX_BUFFERED_ENTRY_SIZE = 8 * 1024 * 1024;
+    static final int DEFAULT_WINDOW = 4 * Runtime.getRuntime().availableProcessors();
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int VERSION = 20;
+    private static final int UNIX = 3 << 8;
+    private static final int UTF8_NAMES = 1 << 11;
+    private static final int SIZES_IN_DESCRIPTOR = 1 << 3;
+    private static final int DEFLATED = 8;
+    // 1980-01-01 00:00, so that the same files always give the same archive
+    private static final int DOS_TIME = 0;
+    private static final int DOS_DATE = (1 << 5) | 1;
+    private static final int REGULAR_FILE = 0100000;
+
+    interface EntrySource {
+        InputStream open(String path) throws IOException;
+    }
+
+    private final int window;
+
+    ParallelZipWriter(int window) {
+        this.window = window;
+    }
+
+    static boolean canWrite(List<FileFingerprint> files) {
+        long size = 0;
+        for (FileFingerprint file : files) {
+            size += file.size;
+        }
+        return files.size() <= 0xFFFF && size < 0xFFFFFFFFL / 2;
+    }
+
+    void write(Path target, List<FileFingerprint> files, EntrySource source) throws IOException {
+        List<CentralEntry> written = Lists.newArrayListWithCapacity(files.size());
+        Deque<Future<Deflated>> pending = new ArrayDeque<>();
+        try (CountingOutputStream counting = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(target)));
+                LittleEndianDataOutputStream out = new LittleEndianDataOutputStream(counting)) {
+            try {
+                for (final FileFingerprint file : files) {
+                    if (file.size > MAX_BUFFERED_ENTRY_SIZE) {
+                        drain(pending, 0, counting, out, written);
+                        written.add(writeStreamed(file, source, counting, out));
+                    } else {
+                        pending.add(DEFLATERS.submit(new Callable<Deflated>() {
+                            @Override
+                            public Deflated call() throws IOException {
+                                return deflate(file, source);
+                            }
+                        }));
+                        drain(pending, window, counting, out, written);
+                    }
+                }
+                drain(pending, 0, counting, out, written);
+            } finally {
+                for (Future<Deflated> future : pending) {
+                    future.cancel(true);
+                }
+            }
+            long centralOffset = counting.getCount();
+            for (CentralEntry entry : written) {
+                writeCentralHeader(entry, out);
+            }
+            long centralSize = counting.getCount() - centralOffset;
+            out.writeInt(END_OF_CENTRAL_DIRECTORY);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(written.size());
+            out.writeShort(written.size());
+            out.writeInt((int) centralSize);
+            out.writeInt((int) centralOffset);
+            out.writeShort(0);
+        }
+    }
+
+    private void drain(Deque<Future<Deflated>> pending, int keep, CountingOutputStream counting,
+            LittleEndianDataOutputStream out, List<CentralEntry> written) throws IOException {
+        while (pending.size() > keep) {
+            Deflated deflated = get(pending.removeFirst());
+            CentralEntry entry = new CentralEntry(deflated.file, deflated.crc, deflated.data.size(), 0, counting.getCount());
+            writeLocalHeader(entry, out);
+            deflated.data.writeTo(out);
+            written.add(entry);
+        }
+    }
+
+    private static Deflated get(Future<Deflated> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    private static Deflated deflate(FileFingerprint file, EntrySource source) throws IOException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream((int) Math.max(32, file.size / 2));
+        long crc = deflate(file, source, data);
+        return new Deflated(file, crc, data);
+    }
+
+    private static CentralEntry writeStreamed(FileFingerprint file, EntrySource source, CountingOutputStream counting,
+            LittleEndianDataOutputStream out) throws IOException {
+        long offset = counting.getCount();
+        CentralEntry header = new CentralEntry(file, 0, 0, SIZES_IN_DESCRIPTOR, offset);
+        writeLocalHeader(header, out);
+        long start = counting.getCount();
+        long crc = deflate(file, source, out);
+        CentralEntry entry = new CentralEntry(file, crc, counting.getCount() - start, SIZES_IN_DESCRIPTOR, offset);
+        out.writeInt(DATA_DESCRIPTOR);
+        out.writeInt((int) entry.crc);
+        out.writeInt((int) entry.compressedSize);
+        out.writeInt((int) file.size);
+        return entry;
+    }
+
+    private static long deflate(FileFingerprint file, EntrySource source, OutputStream target) throws IOException {
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (InputStream in = source.open(file.path)) {
+            DeflaterOutputStream out = new DeflaterOutputStream(target, deflater, 64 * 1024);
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                out.write(buffer, 0, read);
+            }
+            out.finish();
+        } finally {
+            deflater.end();
+        }
+        return crc.getValue();
+    }
+
+    private static void writeLocalHeader(CentralEntry entry, LittleEndianDataOutputStream out) throws IOException {
+        byte[] name = entry.file.path.getBytes(Charsets.UTF_8);
+        boolean descriptor = (entry.flags & SIZES_IN_DESCRIPTOR) != 0;
+        out.writeInt(LOCAL_HEADER);
+        out.writeShort(VERSION);
+        out.writeShort(UTF8_NAMES | entry.flags);
+        out.writeShort(DEFLATED);
+        out.writeShort(DOS_TIME);
+        out.writeShort(DOS_DATE);
+        out.writeInt(descriptor ? 0 : (int) entry.crc);
+        out.writeInt(descriptor ? 0 : (int) entry.compressedSize);
+        out.writeInt(descriptor ? 0 : (int) entry.file.size);
+        out.writeShort(name.length);
+        out.writeShort(0);
+        out.write(name);
+    }
+
+    private static void writeCentralHeader(CentralEntry entry, LittleEndianDataOutputStream out) throws IOException {
+        byte[] name = entry.file.path.getBytes(Charsets.UTF_8);
+        out.writeInt(CENTRAL_HEADER);
+        out.writeShort(UNIX | VERSION);
+        out.writeShort(VERSION);
+        out.writeShort(UTF8_NAMES | entry.flags);
+        out.writeShort(DEFLATED);
+        out.writeShort(DOS_TIME);
+        out.writeShort(DOS_DATE);
+        out.writeInt((int) entry.crc);
+        out.writeInt((int) entry.compressedSize);
+        out.writeInt((int) entry.file.size);
+        out.writeShort(name.length);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeInt((REGULAR_FILE | Integer.parseInt(entry.file.mode, 8)) << 16);
+        out.writeInt((int) entry.offset);
+        out.write(name);
+    }
+
+    private static final class Deflated {
+        final FileFingerprint file;
+        final long crc;
+        final ByteArrayOutputStream data;
+
+        Deflated(FileFingerprint file, long crc, ByteArrayOutputStream data) {
+            this.file = file;
+            this.crc = crc;
+            this.data = data;
+        }
+    }
+
+    private static final class CentralEntry {
+        final FileFingerprint file;
+        final long crc;
+        final long compressedSize;
+        final int flags;
+        final long offset;
+
+        CentralEntry(FileFingerprint file, long crc, long compressedSize, int flags, long offset) {
+            this.file = file;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.flags = flags;
+            this.offset = offset;
+        }
+    }
+}
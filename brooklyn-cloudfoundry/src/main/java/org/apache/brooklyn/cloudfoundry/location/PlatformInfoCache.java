@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.brooklyn.util.time.Duration;
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.info.GetInfoRequest;
+import org.cloudfoundry.client.v2.info.GetInfoResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Caches the {@code /v2/info} of each endpoint: API version, ssh and UAA endpoints and so on
+ * almost never change, so they are fetched once and then refreshed in the background when a
+ * caller finds them older than the requested time-to-live, while the cached value keeps being served.
+ */
+class PlatformInfoCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PlatformInfoCache.class);
+
+    static final PlatformInfoCache INSTANCE = new PlatformInfoCache();
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    Mono<GetInfoResponse> get(final String apiHost, final CloudFoundryClient client, Duration ttl) {
+        Entry entry = entries.get(apiHost);
+        if (entry == null) {
+            final Entry created = new Entry(fetch(client).cache());
+            entry = entries.putIfAbsent(apiHost, created);
+            if (entry == null) {
+                entry = created;
+                // failures are not cached, the next caller tries again
+                created.info.subscribe(
+                        info -> {},
+                        e -> entries.remove(apiHost, created));
+            }
+        } else if (entry.isOlderThan(ttl) && entry.refreshing.compareAndSet(false, true)) {
+            final Entry stale = entry;
+            fetch(client).subscribe(
+                    info -> entries.replace(apiHost, stale, new Entry(Mono.just(info))),
+                    e -> {
+                        LOG.debug("Error refreshing info of " + apiHost + "; keeping cached value", e);
+                        stale.refreshing.set(false);
+                    });
+        }
+        return entry.info;
+    }
+
+    void invalidate(String apiHost) {
+        entries.remove(apiHost);
+    }
+
+    private Mono<GetInfoResponse> fetch(CloudFoundryClient client) {
+        return client.info().get(GetInfoRequest.builder().build());
+    }
+
+    private static final class Entry {
+        private final Mono<GetInfoResponse> info;
+        private final long created = System.currentTimeMillis();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(Mono<GetInfoResponse> info) {
+            this.info = info;
+        }
+
+        boolean isOlderThan(Duration ttl) {
+            return System.currentTimeMillis() - created > ttl.toMilliseconds();
+        }
+    }
+}
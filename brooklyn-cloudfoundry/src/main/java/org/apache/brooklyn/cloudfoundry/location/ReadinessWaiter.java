@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.brooklyn.util.time.Duration;
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.ClientV2Exception;
+import org.cloudfoundry.client.v2.applications.ApplicationInstanceInfo;
+import org.cloudfoundry.client.v2.applications.ApplicationInstancesRequest;
+import org.cloudfoundry.operations.CloudFoundryOperations;
+import org.cloudfoundry.operations.applications.LogsRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Waits for the first instance of a starting application to be running, which for a port
+ * health check means healthy. The instances are checked whenever the cells log something
+ * about the application, such as an instance becoming healthy, and otherwise polled with an
+ * exponential backoff, in case the log stream is unavailable or slow.
+ */
+class ReadinessWaiter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReadinessWaiter.class);
+
+    private static final String CELL_SOURCE = "CELL";
+    /** Cloud Controller error code of an application whose staging failed. */
+    private static final int STAGING_ERROR = 170001;
+    private static final Duration MAX_POLL_PERIOD = Duration.seconds(10);
+
+    private final CloudFoundryClient client;
+    private final CloudFoundryOperations operations;
+    private final Duration pollPeriod;
+
+    ReadinessWaiter(CloudFoundryClient client, CloudFoundryOperations operations, Duration pollPeriod) {
+        this.client = client;
+        this.operations = operations;
+        this.pollPeriod = pollPeriod;
+    }
+
+    /**
+     * Completes once an instance of the application is running; it never times out by itself.
+     */
+    Mono<Void> awaitFirstRunning(final String applicationName, final String applicationId) {
+        final AtomicInteger attempt = new AtomicInteger();
+        Flux<Object> cellEvents = operations.applications()
+                .logs(LogsRequest.builder().name(applicationName).recent(false).build())
+                .filter(log -> CELL_SOURCE.equals(log.getSourceType()))
+                .cast(Object.class)
+                .onErrorResumeWith(e -> {
+                    LOG.debug("Cannot stream the logs of " + applicationName + ", polling its instances only", e);
+                    return Flux.empty();
+                });
+        Flux<Object> polls = Mono.defer(() -> Mono.delay(getPollDelay(attempt.getAndIncrement())))
+                .repeat()
+                .cast(Object.class);
+        return Flux.merge(Flux.<Object>just(applicationId), cellEvents, polls)
+                .concatMap(trigger -> hasRunningInstance(applicationId))
+                .filter(Boolean::booleanValue)
+                .next()
+                .then();
+    }
+
+    private Mono<Boolean> hasRunningInstance(String applicationId) {
+        return client.applicationsV2()
+                .instances(ApplicationInstancesRequest.builder().applicationId(applicationId).build())
+                .map(response -> {
+                    for (ApplicationInstanceInfo instance : response.getInstances().values()) {
+                        if (RollingRestart.RUNNING.equals(instance.getState())) return true;
+                    }
+                    return false;
+                })
+                // while the application is staging the instances cannot be listed, unless staging failed
+                .otherwise(e -> isStagingFailure(e) ? Mono.<Boolean>error(e) : Mono.just(false));
+    }
+
+    private static boolean isStagingFailure(Throwable e) {
+        return e instanceof ClientV2Exception && Integer.valueOf(STAGING_ERROR).equals(((ClientV2Exception) e).getCode());
+    }
+
+    private java.time.Duration getPollDelay(int attempt) {
+        long delay = Math.min(pollPeriod.toMilliseconds() << Math.min(attempt, 16), MAX_POLL_PERIOD.toMilliseconds());
+        return java.time.Duration.ofMillis(delay);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.apache.brooklyn.util.time.Duration;
+import org.cloudfoundry.reactor.ConnectionContext;
+import org.cloudfoundry.reactor.TokenProvider;
+import org.cloudfoundry.reactor.tokenprovider.PasswordGrantTokenProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * A {@link TokenProvider} for a single set of credentials, shared by the Cloud Controller and UAA
+ * clients of every tenant using those credentials. The token is fetched once, served from memory
+ * and refreshed in the background shortly before it expires, so requests never wait for UAA:
+ * the current token is served until its replacement has arrived. Concurrent refreshes collapse
+ * into a single password grant.
+ */
+public class RefreshingTokenProvider implements TokenProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshingTokenProvider.class);
+
+    /** How long before the expiry of a token it is refreshed. */
+    public static final Duration DEFAULT_REFRESH_MARGIN = Duration.minutes(1);
+
+    /** Lifetime assumed for tokens whose expiry cannot be read. */
+    public static final Duration DEFAULT_TOKEN_LIFETIME = Duration.minutes(10);
+
+    /** Shortest wait before a refresh, so short-lived tokens or failing grants do not spin. */
+    public static final Duration DEFAULT_MIN_REFRESH_DELAY = Duration.seconds(10);
+
+    private static final ScheduledExecutorService REFRESHER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("brooklyn-cloudfoundry-token-refresher-%d").setDaemon(true).build());
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String username;
+    private final Duration refreshMargin;
+    private final Duration minRefreshDelay;
+    private final Function<ConnectionContext, Mono<String>> grant;
+
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong lastAcquisitionNanos = new AtomicLong(-1);
+
+    private volatile ConnectionContext connectionContext;
+    private volatile Mono<String> token;
+    private Mono<String> pending;
+    private volatile ScheduledFuture<?> scheduledRefresh;
+    private volatile boolean closed;
+
+    public RefreshingTokenProvider(String username, String password) {
+        this(username, password, DEFAULT_REFRESH_MARGIN);
+    }
+
+    public RefreshingTokenProvider(final String username, final String password, Duration refreshMargin) {
+        this(username, refreshMargin, DEFAULT_MIN_REFRESH_DELAY, connectionContext -> PasswordGrantTokenProvider.builder()
+                .username(username)
+                .password(password)
+                .build()
+                .getToken(connectionContext));
+    }
+
+    RefreshingTokenProvider(String username, Duration refreshMargin, Duration minRefreshDelay,
+            Function<ConnectionContext, Mono<String>> grant) {
+        this.username = username;
+        this.refreshMargin = refreshMargin;
+        this.minRefreshDelay = minRefreshDelay;
+        this.grant = grant;
+    }
+
+    @Override
+    public Mono<String> getToken(ConnectionContext connectionContext) {
+        this.connectionContext = connectionContext;
+        Mono<String> current = token;
+        return (current != null) ? current : refresh(null);
+    }
+
+    /**
+     * Number of tokens obtained from UAA, including the first one.
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * How long the last token took to obtain, or null if no token has been obtained yet.
+     */
+    public Duration getLastAcquisitionLatency() {
+        long nanos = lastAcquisitionNanos.get();
+        return (nanos < 0) ? null : Duration.nanos(nanos);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void close() {
+        closed = true;
+        ScheduledFuture<?> refresh = scheduledRefresh;
+        if (refresh != null) refresh.cancel(false);
+    }
+
+    /**
+     * Obtains a token to replace the {@code stale} one, unless another caller has already replaced
+     * it, in which case that caller's token is returned. Only one grant is ever in flight; the
+     * stale token is served to other callers until the new one has arrived.
+     */
+    private synchronized Mono<String> refresh(final Mono<String> stale) {
+        if (pending != null) {
+            return pending;
+        }
+        if (token != null && token != stale) {
+            return token;
+        }
+        final long start = System.nanoTime();
+        pending = Mono.defer(() -> grant.apply(connectionContext))
+                .doOnSuccess(value -> {
+                    Mono<String> current = replace(value);
+                    lastAcquisitionNanos.set(System.nanoTime() - start);
+                    refreshCount.incrementAndGet();
+                    scheduleRefresh(current, getRefreshDelay(value));
+                })
+                .doOnError(e -> {
+                    if (failed(stale)) scheduleRefresh(stale, minRefreshDelay.toMilliseconds());
+                })
+                .cache();
+        return pending;
+    }
+
+    private synchronized Mono<String> replace(String value) {
+        pending = null;
+        token = Mono.just(value);
+        return token;
+    }
+
+    /**
+     * Clears the failed grant, and returns whether the {@code stale} token is still being served,
+     * in which case it is refreshed again later; otherwise the next caller retries.
+     */
+    private synchronized boolean failed(Mono<String> stale) {
+        pending = null;
+        return stale != null && token == stale;
+    }
+
+    private long getRefreshDelay(String value) {
+        Duration lifetime = getLifetime(value);
+        return Math.max(minRefreshDelay.toMilliseconds(), lifetime.toMilliseconds() - refreshMargin.toMilliseconds());
+    }
+
+    private void scheduleRefresh(final Mono<String> current, long delay) {
+        if (closed) return;
+        LOG.debug("Scheduling refresh of cloudfoundry token for {} in {}", username, Duration.millis(delay));
+        scheduledRefresh = REFRESHER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (closed) return;
+                refresh(current).subscribe(
+                        v -> LOG.trace("Refreshed cloudfoundry token for {}", username),
+                        e -> LOG.warn("Failed to refresh cloudfoundry token for " + username + "; will retry", e));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the remaining lifetime from the {@code exp} claim of the (bearer) JWT.
+     */
+    static Duration getLifetime(String value) {
+        try {
+            String jwt = Iterables.getLast(Splitter.on(' ').omitEmptyStrings().split(value));
+            String payload = Iterables.get(Splitter.on('.').split(jwt), 1);
+            JsonNode exp = MAPPER.readTree(Base64.getUrlDecoder().decode(payload)).get("exp");
+            if (exp != null && exp.canConvertToLong()) {
+                return Duration.millis(Math.max(0, exp.asLong() * 1000 - System.currentTimeMillis()));
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("Cannot read expiry of cloudfoundry token, assuming " + DEFAULT_TOKEN_LIFETIME, e);
+        }
+        return DEFAULT_TOKEN_LIFETIME;
+    }
+}
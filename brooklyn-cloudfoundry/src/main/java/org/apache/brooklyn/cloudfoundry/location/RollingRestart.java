@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.brooklyn.util.time.Duration;
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.applications.ApplicationInstanceInfo;
+import org.cloudfoundry.client.v2.applications.ApplicationInstancesRequest;
+import org.cloudfoundry.client.v2.applications.TerminateApplicationInstanceRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Restarts the instances of a running application in batches of at most {@code maxUnavailable}.
+ * The instances of a batch are terminated together; the next batch is only taken down once each
+ * of them has been running since after it was terminated, and the other instances are running
+ * as well, so that the application keeps serving while its instances pick up a new memory or disk
+ * limit, environment or service binding. Unlike a restage, the droplet is kept.
+ */
+class RollingRestart {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RollingRestart.class);
+
+    static final String RUNNING = "RUNNING";
+    static final String CRASHED = "CRASHED";
+
+    private static final Duration MAX_POLL_PERIOD = Duration.seconds(10);
+
+    /**
+     * Notified after each batch, to report progress.
+     */
+    interface Listener {
+        void batchRestarted(int restartedInstances, int instances, Duration batchDuration);
+    }
+
+    /**
+     * The instances API of the Cloud Controller.
+     */
+    interface Instances {
+        Mono<Map<String, ApplicationInstanceInfo>> get(String applicationId);
+
+        Mono<Void> terminate(String applicationId, String index);
+    }
+
+    private final Instances instances;
+    private final Duration pollPeriod;
+    private final int maxUnavailable;
+    private final Duration batchTimeout;
+    private final Listener listener;
+
+    RollingRestart(final CloudFoundryClient client, Duration pollPeriod, int maxUnavailable, Duration batchTimeout,
+            Listener listener) {
+        this(new Instances() {
+            @Override
+            public Mono<Map<String, ApplicationInstanceInfo>> get(String applicationId) {
+                return client.applicationsV2()
+                        .instances(ApplicationInstancesRequest.builder().applicationId(applicationId).build())
+                        .map(response -> response.getInstances());
+            }
+
+            @Override
+            public Mono<Void> terminate(String applicationId, String index) {
+                return client.applicationsV2()
+                        .terminateInstance(TerminateApplicationInstanceRequest.builder()
+                                .applicationId(applicationId)
+                                .index(index)
+                                .build());
+            }
+        }, pollPeriod, maxUnavailable, batchTimeout, listener);
+    }
+
+    RollingRestart(Instances instances, Duration pollPeriod, int maxUnavailable, Duration batchTimeout, Listener listener) {
+        checkArgument(maxUnavailable > 0, "maxUnavailable must be positive, was %s", maxUnavailable);
+        this.instances = instances;
+        this.pollPeriod = pollPeriod;
+        this.maxUnavailable = maxUnavailable;
+        this.batchTimeout = batchTimeout;
+        this.listener = listener;
+    }
+
+    Mono<Void> restart(final String applicationId) {
+        return instances.get(applicationId)
+                .flatMap(before -> {
+                    List<String> indexes = Lists.newArrayList(before.keySet());
+                    indexes.sort((a, b) -> Integer.compare(Integer.parseInt(a), Integer.parseInt(b)));
+                    final Set<String> restarted = Sets.newConcurrentHashSet();
+                    return Flux.fromIterable(Lists.partition(indexes, maxUnavailable))
+                            .concatMap(batch -> restartBatch(applicationId, batch, before, restarted)
+                                    .doOnSuccess(batchDuration -> {
+                                        restarted.addAll(batch);
+                                        listener.batchRestarted(restarted.size(), indexes.size(), batchDuration);
+                                    }));
+                })
+                .then();
+    }
+
+    /**
+     * Restarts the instances of the batch together, then waits for the whole application to be
+     * running before the next batch is taken down.
+     */
+    private Mono<Duration> restartBatch(final String applicationId, final List<String> batch,
+            final Map<String, ApplicationInstanceInfo> before, final Set<String> restarted) {
+        return Mono.defer(() -> {
+            final Stopwatch stopwatch = Stopwatch.createStarted();
+            return Flux.fromIterable(batch)
+                    .flatMap(index -> restartInstance(applicationId, index, before.get(index)))
+                    .then()
+                    .then(awaitAllRunning(applicationId, batch, before, restarted))
+                    .timeout(java.time.Duration.ofMillis(batchTimeout.toMilliseconds()))
+                    .then(Mono.fromCallable(() -> Duration.millis(stopwatch.elapsed(TimeUnit.MILLISECONDS))));
+        });
+    }
+
+    private Mono<Void> restartInstance(final String applicationId, final String index, ApplicationInstanceInfo before) {
+        LOG.debug("Restarting instance {} of application {}", index, applicationId);
+        return instances.terminate(applicationId, index)
+                .then(awaitRunning(applicationId, index, before.getSince()));
+    }
+
+    /**
+     * Polls the instances, backing off exponentially, until the given one has been running
+     * since a later time than before it was terminated.
+     */
+    private Mono<Void> awaitRunning(final String applicationId, final String index, final Double since) {
+        final AtomicInteger attempt = new AtomicInteger();
+        return Mono.defer(() -> instances.get(applicationId))
+                .then(current -> {
+                    ApplicationInstanceInfo instance = current.get(index);
+                    if (instance != null && isRestarted(instance, since)) {
+                        if (CRASHED.equals(instance.getState())) {
+                            return Mono.error(new IllegalStateException("Instance " + index + " of application "
+                                    + applicationId + " crashed after restart"));
+                        } else if (RUNNING.equals(instance.getState())) {
+                            return Mono.<Void>empty();
+                        }
+                    }
+                    return Mono.error(new InstanceNotRunningException(applicationId, index));
+                })
+                .retryWhen(errors -> errors.flatMap(e -> (e instanceof InstanceNotRunningException)
+                        ? Mono.delay(getPollDelay(attempt.getAndIncrement()))
+                        : Mono.<Long>error(e)));
+    }
+
+    /**
+     * The health gate between batches: polls the instances until the ones of the batch have been
+     * running since after they were terminated and the others are running, failing if one crashed.
+     * Instances which were not running before the restart, for example because they crashed
+     * without their service bindings, are left out until their own batch restarts them.
+     */
+    private Mono<Void> awaitAllRunning(final String applicationId, final List<String> batch,
+            final Map<String, ApplicationInstanceInfo> before, final Set<String> restarted) {
+        final AtomicInteger attempt = new AtomicInteger();
+        return Mono.defer(() -> instances.get(applicationId))
+                .then(current -> {
+                    for (Map.Entry<String, ApplicationInstanceInfo> entry : current.entrySet()) {
+                        String index = entry.getKey();
+                        ApplicationInstanceInfo instance = entry.getValue();
+                        ApplicationInstanceInfo previous = before.get(index);
+                        if (batch.contains(index)) {
+                            if (!isRestarted(instance, previous.getSince())) {
+                                return Mono.<Void>error(new InstanceNotRunningException(applicationId, index));
+                            }
+                        } else if (!restarted.contains(index) && (previous == null || !RUNNING.equals(previous.getState()))) {
+                            continue;
+                        }
+                        if (CRASHED.equals(instance.getState())) {
+                            return Mono.<Void>error(new IllegalStateException("Instance " + index
+                                    + " of application " + applicationId + " crashed during rolling restart"));
+                        } else if (!RUNNING.equals(instance.getState())) {
+                            return Mono.<Void>error(new InstanceNotRunningException(applicationId, index));
+                        }
+                    }
+                    return Mono.<Void>empty();
+                })
+                .retryWhen(errors -> errors.flatMap(e -> (e instanceof InstanceNotRunningException)
+                        ? Mono.delay(getPollDelay(attempt.getAndIncrement()))
+                        : Mono.<Long>error(e)));
+    }
+
+    /**
+     * Whether the instance is in a state it reached after being terminated, the state it had
+     * before still being reported until it goes down.
+     */
+    private static boolean isRestarted(ApplicationInstanceInfo instance, Double since) {
+        return since == null || (instance.getSince() != null && instance.getSince() > since);
+    }
+
+    private java.time.Duration getPollDelay(int attempt) {
+        long delay = Math.min(pollPeriod.toMilliseconds() << Math.min(attempt, 16), MAX_POLL_PERIOD.toMilliseconds());
+        return java.time.Duration.ofMillis(delay);
+    }
+
+    private static class InstanceNotRunningException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        InstanceNotRunningException(String applicationId, String index) {
+            super("Instance " + index + " of application " + applicationId + " is not running yet");
+        }
+    }
+}
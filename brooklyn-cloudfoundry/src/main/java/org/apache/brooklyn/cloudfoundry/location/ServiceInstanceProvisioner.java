@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.brooklyn.util.time.Duration;
+import org.cloudfoundry.operations.CloudFoundryOperations;
+import org.cloudfoundry.operations.services.CreateServiceInstanceRequest;
+import org.cloudfoundry.operations.services.DeleteServiceInstanceRequest;
+import org.cloudfoundry.operations.services.GetServiceInstanceRequest;
+import org.cloudfoundry.operations.services.ServiceInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Creates the service instances of an application concurrently, waiting for brokers that
+ * provision asynchronously, and deletes them again if any of them fails.
+ */
+class ServiceInstanceProvisioner {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceInstanceProvisioner.class);
+
+    private static final String IN_PROGRESS = "in progress";
+    private static final String FAILED = "failed";
+    private static final Duration MAX_POLL_PERIOD = Duration.seconds(30);
+
+    private final CloudFoundryOperations operations;
+    private final int parallelism;
+    private final Duration pollPeriod;
+
+    ServiceInstanceProvisioner(CloudFoundryOperations operations, int parallelism, Duration pollPeriod) {
+        this.operations = operations;
+        this.parallelism = parallelism;
+        this.pollPeriod = pollPeriod;
+    }
+
+    /**
+     * Creates the instances, at most {@code parallelism} at a time, completing with their names once
+     * all of them are ready. If any fails, the ones already requested are deleted.
+     */
+    Mono<List<String>> create(List<CreateServiceInstanceRequest> requests) {
+        if (requests.isEmpty()) {
+            return Mono.just(ImmutableList.<String>of());
+        }
+        final Set<String> requested = ConcurrentHashMap.newKeySet();
+        return Flux.fromIterable(requests)
+                .flatMap(request -> Mono.defer(() -> {
+                            requested.add(request.getServiceInstanceName());
+                            return operations.services().createInstance(request);
+                        })
+                        .then(awaitReady(request.getServiceInstanceName()))
+                        .doOnError(e -> LOG.error("Error creating the service {}, the error was {}", request.getServiceInstanceName(), e)),
+                        parallelism)
+                .collectList()
+                .otherwise(e -> delete(requested).then(Mono.<List<String>>error(e)));
+    }
+
+    /**
+     * Deletes the instances, at most {@code parallelism} at a time, logging rather than failing
+     * on instances that cannot be deleted.
+     */
+    Mono<Void> delete(Collection<String> serviceInstanceNames) {
+        return Flux.fromIterable(ImmutableList.copyOf(serviceInstanceNames))
+                .flatMap(name -> operations.services()
+                                .deleteInstance(DeleteServiceInstanceRequest.builder().name(name).build())
+                                .otherwise(e -> {
+                                    LOG.warn("Error deleting the service " + name, e);
+                                    return Mono.empty();
+                                }),
+                        parallelism)
+                .then();
+    }
+
+    /**
+     * Polls the instance, backing off exponentially, while its last operation is in progress.
+     */
+    private Mono<String> awaitReady(final String serviceInstanceName) {
+        final AtomicInteger attempt = new AtomicInteger();
+        return Mono.defer(() -> operations.services()
+                        .getInstance(GetServiceInstanceRequest.builder().name(serviceInstanceName).build()))
+                .then(instance -> checkReady(instance))
+                .retryWhen(errors -> errors.flatMap(e -> (e instanceof OperationInProgressException)
+                        ? Mono.delay(getPollDelay(attempt.getAndIncrement()))
+                        : Mono.<Long>error(e)));
+    }
+
+    private Mono<String> checkReady(ServiceInstance instance) {
+        String status = instance.getStatus();
+        if (IN_PROGRESS.equalsIgnoreCase(status)) {
+            LOG.debug("Waiting for the {} of service {} to complete", instance.getLastOperation(), instance.getName());
+            return Mono.error(new OperationInProgressException(instance.getName()));
+        } else if (FAILED.equalsIgnoreCase(status)) {
+            return Mono.error(new IllegalStateException("Service " + instance.getName() + " failed to "
+                    + instance.getLastOperation() + ": " + instance.getMessage()));
+        }
+        return Mono.just(instance.getName());
+    }
+
+    private java.time.Duration getPollDelay(int attempt) {
+        long delay = Math.min(pollPeriod.toMilliseconds() << Math.min(attempt, 16), MAX_POLL_PERIOD.toMilliseconds());
+        return java.time.Duration.ofMillis(delay);
+    }
+
+    private static class OperationInProgressException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        OperationInProgressException(String serviceInstanceName) {
+            super("Operation in progress on service " + serviceInstanceName);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.cloudfoundry.entity.CloudFoundryHealthCheck;
+import org.apache.brooklyn.cloudfoundry.entity.VanillaCloudFoundryApplication;
+import org.apache.brooklyn.core.entity.Entities;
+import org.apache.brooklyn.core.entity.lifecycle.ServiceStateLogic.ServiceNotUpLogic;
+import org.apache.brooklyn.util.time.Duration;
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.client.v2.spaces.GetSpaceSummaryRequest;
+import org.cloudfoundry.client.v2.spaces.SpaceApplicationSummary;
+import org.cloudfoundry.operations.CloudFoundryOperations;
+import org.cloudfoundry.operations.spaces.GetSpaceRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Polls the summary of all the applications of a space in a single request, and publishes each
+ * application's url, instances, running instances, memory and disk quota on the entity it was deployed for. Only
+ * one request is made per period however many entities are registered. The period is doubled,
+ * up to a maximum, each time a poll finds nothing changed, and goes back to the minimum when
+ * something does. Entities rebound after a restart of Brooklyn are refreshed by a single poll as
+ * well. Entities whose application is no longer in the space are marked as not up until it is.
+ */
+class SpaceApplicationsPoller {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpaceApplicationsPoller.class);
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("brooklyn-cloudfoundry-poller-%d").setDaemon(true).build());
+
+    private static final Duration RECONNECT_DELAY = Duration.seconds(1);
+
+    /** Key of the not-up indicator of entities whose application has been deleted outside of Brooklyn. */
+    private static final String APPLICATION_MISSING = "cloudfoundry.application";
+
+    private final Supplier<CloudFoundryClient> client;
+    private final Supplier<CloudFoundryOperations> operations;
+    private final String space;
+    private final Duration minPeriod;
+    private final Duration maxPeriod;
+
+    private final ConcurrentMap<String, Entity> entities = new ConcurrentHashMap<>();
+    private final Set<String> missing = Sets.newHashSet();
+    private volatile Mono<String> spaceId;
+    private Map<String, List<Object>> lastValues = ImmutableMap.of();
+    private Duration period;
+    private ScheduledFuture<?> next;
+
+    SpaceApplicationsPoller(Supplier<CloudFoundryClient> client, Supplier<CloudFoundryOperations> operations, String space,
+            Duration minPeriod, Duration maxPeriod) {
+        this.client = client;
+        this.operations = operations;
+        this.space = space;
+        this.minPeriod = minPeriod;
+        this.maxPeriod = maxPeriod;
+        this.period = minPeriod;
+    }
+
+    /**
+     * Publishes the sensors of the application on the entity from the next poll on, which is
+     * made right away.
+     */
+    synchronized void register(String applicationName, Entity entity) {
+        entities.put(applicationName, entity);
+        period = minPeriod;
+        schedule(Duration.ZERO);
+    }
+
+    /**
+     * Registers an entity whose state was rebound rather than just deployed. The poll is delayed a
+     * little, so that the entities rebound together are all refreshed by the same request.
+     */
+    synchronized void reconnect(String applicationName, Entity entity) {
+        entities.put(applicationName, entity);
+        period = minPeriod;
+        if (next == null || next.getDelay(TimeUnit.MILLISECONDS) > RECONNECT_DELAY.toMilliseconds()) {
+            schedule(RECONNECT_DELAY);
+        }
+    }
+
+    synchronized void unregister(String applicationName) {
+        entities.remove(applicationName);
+        missing.remove(applicationName);
+        if (entities.isEmpty()) {
+            stop();
+        }
+    }
+
+    synchronized void stop() {
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+    }
+
+    /**
+     * The summaries of all the applications of the space, by name.
+     */
+    Mono<Map<String, SpaceApplicationSummary>> fetch() {
+        return getSpaceId()
+                .then(id -> client.get().spaces().getSummary(GetSpaceSummaryRequest.builder().spaceId(id).build()))
+                .map(summary -> {
+                    ImmutableMap.Builder<String, SpaceApplicationSummary> result = ImmutableMap.builder();
+                    for (SpaceApplicationSummary application : summary.getApplications()) {
+                        result.put(application.getName(), application);
+                    }
+                    return result.build();
+                });
+    }
+
+    private Mono<String> getSpaceId() {
+        Mono<String> current = spaceId;
+        if (current == null) {
+            final Mono<String> id = operations.get().spaces()
+                    .get(GetSpaceRequest.builder().name(space).build())
+                    .map(spaceDetail -> spaceDetail.getId())
+                    .cache();
+            // stored before subscribing, so that even a failure reported right away is not cached;
+            // the next poll tries again
+            spaceId = id;
+            id.subscribe(i -> {}, e -> {
+                if (spaceId == id) spaceId = null;
+            });
+            current = id;
+        }
+        return current;
+    }
+
+    private synchronized void schedule(Duration delay) {
+        stop();
+        if (!entities.isEmpty()) {
+            next = SCHEDULER.schedule(this::poll, delay.toMilliseconds(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void poll() {
+        // a stuck request must not stop the polling
+        fetch()
+                .timeout(java.time.Duration.ofMillis(maxPeriod.toMilliseconds()))
+                .subscribe(this::publish, e -> {
+                    LOG.debug("Error polling the applications of space " + space, e);
+                    schedule(period);
+                });
+    }
+
+    /**
+     * Publishes the summaries on the registered entities which are still managed, and adapts the
+     * period to whether any of their applications changed since the previous poll.
+     */
+    synchronized void publish(Map<String, SpaceApplicationSummary> applications) {
+        ImmutableMap.Builder<String, List<Object>> values = ImmutableMap.builder();
+        for (Map.Entry<String, Entity> registered : entities.entrySet()) {
+            Entity entity = registered.getValue();
+            SpaceApplicationSummary application = applications.get(registered.getKey());
+            if (Entities.isNoLongerManaged(entity)) {
+                entities.remove(registered.getKey(), entity);
+                missing.remove(registered.getKey());
+            } else if (!Entities.isManaged(entity)) {
+                // still being rebound
+                continue;
+            } else if (application == null) {
+                // deleted outside of Brooklyn, whether before it was rebound or since it was deployed
+                if (missing.add(registered.getKey())) {
+                    LOG.warn("Application {} of {} no longer exists in space {}", new Object[] {registered.getKey(), entity, space});
+                    entity.sensors().set(CloudFoundryHealthCheck.RUNNING_INSTANCES, 0);
+                    ServiceNotUpLogic.updateNotUpIndicator(entity, APPLICATION_MISSING,
+                            "Application " + registered.getKey() + " no longer exists");
+                }
+            } else {
+                if (missing.remove(registered.getKey())) {
+                    // redeployed, or restored, under the same name
+                    ServiceNotUpLogic.clearNotUpIndicator(entity, APPLICATION_MISSING);
+                }
+                values.put(registered.getKey(), ImmutableList.<Object>of(
+                        MoreObjects.firstNonNull(application.getInstances(), 0),
+                        MoreObjects.firstNonNull(application.getRunningInstances(), 0),
+                        MoreObjects.firstNonNull(application.getMemory(), 0),
+                        MoreObjects.firstNonNull(application.getDiskQuota(), 0),
+                        MoreObjects.firstNonNull(application.getState(), ""),
+                        MoreObjects.firstNonNull(application.getUrls(), ImmutableList.of())));
+                publish(entity, application);
+            }
+        }
+        Map<String, List<Object>> currentValues = values.build();
+        if (currentValues.equals(lastValues)) {
+            period = Duration.millis(Math.min(period.toMilliseconds() * 2, maxPeriod.toMilliseconds()));
+        } else {
+            period = minPeriod;
+        }
+        lastValues = currentValues;
+        schedule(period);
+    }
+
+    private static void publish(Entity entity, SpaceApplicationSummary application) {
+        List<String> urls = application.getUrls();
+        entity.sensors().set(VanillaCloudFoundryApplication.ROOT_URL,
+                (urls == null || urls.isEmpty()) ? null : "http://" + urls.get(0));
+        entity.sensors().set(VanillaCloudFoundryApplication.INSTANCES, application.getInstances());
+        entity.sensors().set(VanillaCloudFoundryApplication.ALLOCATED_MEMORY, application.getMemory());
+        entity.sensors().set(VanillaCloudFoundryApplication.ALLOCATED_DISK, application.getDiskQuota());
+        entity.sensors().set(CloudFoundryHealthCheck.RUNNING_INSTANCES, application.getRunningInstances());
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.policy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.brooklyn.api.entity.EntityLocal;
+import org.apache.brooklyn.api.sensor.AttributeSensor;
+import org.apache.brooklyn.api.sensor.SensorEvent;
+import org.apache.brooklyn.api.sensor.SensorEventListener;
+import org.apache.brooklyn.cloudfoundry.entity.CloudFoundryInstanceStatistics;
+import org.apache.brooklyn.cloudfoundry.entity.VanillaCloudFoundryApplication;
+import org.apache.brooklyn.config.ConfigKey;
+import org.apache.brooklyn.core.config.ConfigKeys;
+import org.apache.brooklyn.core.entity.EntityInternal;
+import org.apache.brooklyn.core.policy.AbstractPolicy;
+import org.apache.brooklyn.core.sensor.Sensors;
+import org.apache.brooklyn.util.core.flags.SetFromFlag;
+import org.apache.brooklyn.util.core.task.Tasks;
+import org.apache.brooklyn.util.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.reflect.TypeToken;
+
+/**
+ * Scales the number of instances of a {@link VanillaCloudFoundryApplication} or
+ * {@link org.apache.brooklyn.cloudfoundry.entity.CloudFoundryAppFromManifest} to keep a metric
+ * per instance, by default the 95th percentile of the CPU usage, between a lower and an upper
+ * bound. Instances are added or removed through the scale API, so the running ones are not
+ * restarted. See {@link ScalingDecider} for how the number of instances is chosen.
+ * <p>
+ * The metric is usually a statistic over the {@link CloudFoundryInstanceStatistics#STATISTICS_WINDOW}
+ * of the entity, which mostly reflects the instances before a scaling until the window has been
+ * refilled, so the cooldowns are never shorter than that window.
+ */
+public class CloudFoundryAutoScalerPolicy extends AbstractPolicy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CloudFoundryAutoScalerPolicy.class);
+
+    @SetFromFlag("metric")
+    public static final ConfigKey<AttributeSensor<? extends Number>> METRIC = ConfigKeys.newConfigKey(
+            new TypeToken<AttributeSensor<? extends Number>>() {}, "autoscaler.metric",
+            "Sensor of the metric per instance to keep between the bounds", CloudFoundryInstanceStatistics.CPU_P95);
+
+    @SetFromFlag("metricLowerBound")
+    public static final ConfigKey<Double> METRIC_LOWER_BOUND = ConfigKeys.newDoubleConfigKey(
+            "autoscaler.metricLowerBound", "Value of the metric below which instances are removed", 0.2);
+
+    @SetFromFlag("metricUpperBound")
+    public static final ConfigKey<Double> METRIC_UPPER_BOUND = ConfigKeys.newDoubleConfigKey(
+            "autoscaler.metricUpperBound", "Value of the metric above which instances are added", 0.8);
+
+    @SetFromFlag("minInstances")
+    public static final ConfigKey<Integer> MIN_INSTANCES = ConfigKeys.newIntegerConfigKey(
+            "autoscaler.minInstances", "Minimum number of instances", 1);
+
+    @SetFromFlag("maxInstances")
+    public static final ConfigKey<Integer> MAX_INSTANCES = ConfigKeys.newIntegerConfigKey(
+            "autoscaler.maxInstances", "Maximum number of instances", 10);
+
+    @SetFromFlag("maxStep")
+    public static final ConfigKey<Integer> MAX_STEP = ConfigKeys.newIntegerConfigKey(
+            "autoscaler.maxStep", "Maximum number of instances added or removed at once", 4);
+
+    @SetFromFlag("sustain")
+    public static final ConfigKey<Integer> SUSTAIN = ConfigKeys.newIntegerConfigKey(
+            "autoscaler.sustain", "Number of consecutive values of the metric beyond a bound before scaling", 2);
+
+    @SetFromFlag("scaleUpCooldown")
+    public static final ConfigKey<Duration> SCALE_UP_COOLDOWN = ConfigKeys.newConfigKey(Duration.class,
+            "autoscaler.scaleUpCooldown", "Minimum time after a scaling before instances are added; never shorter " +
+                    "than the statistics window of the entity", Duration.ONE_MINUTE);
+
+    @SetFromFlag("scaleDownCooldown")
+    public static final ConfigKey<Duration> SCALE_DOWN_COOLDOWN = ConfigKeys.newConfigKey(Duration.class,
+            "autoscaler.scaleDownCooldown", "Minimum time after a scaling before instances are removed; never shorter " +
+                    "than the statistics window of the entity", Duration.minutes(5));
+
+    @SetFromFlag("scaler")
+    public static final ConfigKey<InstanceScaler> SCALER = ConfigKeys.newConfigKey(InstanceScaler.class,
+            "autoscaler.scaler", "How the instances are scaled; the default is almost always fine, except where " +
+                    "tests want to customize behaviour", InstanceScaler.DEFAULT);
+
+    public static final AttributeSensor<String> SCALING_DECISION = Sensors.newStringSensor(
+            "cloudfoundry.autoscaler.lastDecision", "Last scaling decision of the autoscaler and its reason");
+
+    public static final AttributeSensor<Integer> DESIRED_INSTANCES = Sensors.newIntegerSensor(
+            "cloudfoundry.autoscaler.desiredInstances", "Number of instances last decided by the autoscaler");
+
+    public static final AttributeSensor<Duration> SCALING_LATENCY = Sensors.newSensor(Duration.class,
+            "cloudfoundry.autoscaler.scalingLatency", "Time taken by the last scaling until confirmed by the platform");
+
+    private final AtomicBoolean scaling = new AtomicBoolean();
+    private ScalingDecider decider;
+
+    @Override
+    public void setEntity(EntityLocal entity) {
+        super.setEntity(entity);
+        long window = entity.config().get(CloudFoundryInstanceStatistics.STATISTICS_WINDOW).toMilliseconds();
+        decider = new ScalingDecider(config().get(MIN_INSTANCES), config().get(MAX_INSTANCES),
+                config().get(METRIC_LOWER_BOUND), config().get(METRIC_UPPER_BOUND), config().get(MAX_STEP),
+                Math.max(config().get(SCALE_UP_COOLDOWN).toMilliseconds(), window),
+                Math.max(config().get(SCALE_DOWN_COOLDOWN).toMilliseconds(), window),
+                config().get(SUSTAIN));
+        subscriptions().subscribe(entity, config().get(METRIC), new SensorEventListener<Number>() {
+            @Override
+            public void onEvent(SensorEvent<Number> event) {
+                onMetric(event.getValue());
+            }
+        });
+    }
+
+    private void onMetric(Number metric) {
+        Integer current = entity.sensors().get(VanillaCloudFoundryApplication.INSTANCES);
+        if (metric == null || current == null || !isRunning() || scaling.get()) {
+            // one scaling at a time; the metric is sampled again once it is done
+            return;
+        }
+        final int desired = decider.decide(System.currentTimeMillis(), metric.doubleValue(), current);
+        if (desired == current) return;
+
+        final String decision = String.format("%s %d to %d instances: %s=%s, bounds [%s, %s]",
+                desired > current ? "scale up" : "scale down", current, desired, config().get(METRIC).getName(), metric,
+                config().get(METRIC_LOWER_BOUND), config().get(METRIC_UPPER_BOUND));
+        if (!scaling.compareAndSet(false, true)) return;
+        LOG.info("{} on {}: {}", this, entity, decision);
+        entity.sensors().set(SCALING_DECISION, decision);
+        entity.sensors().set(DESIRED_INSTANCES, desired);
+        ((EntityInternal) entity).getExecutionContext().submit(Tasks.<Void>builder()
+                .displayName("Scaling to " + desired + " instances")
+                .body(() -> scale(desired))
+                .build());
+    }
+
+    private void scale(int desired) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            int confirmed = config().get(SCALER).scale(entity, desired);
+            entity.sensors().set(SCALING_LATENCY, Duration.millis(stopwatch.elapsed(TimeUnit.MILLISECONDS)));
+            LOG.debug("{} scaled {} to {} instances", this, entity, confirmed);
+        } catch (RuntimeException e) {
+            LOG.warn("Error scaling " + entity + " to " + desired + " instances", e);
+        } finally {
+            decider.scaled(System.currentTimeMillis());
+            scaling.set(false);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.policy;
+
+import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.cloudfoundry.entity.CloudFoundryEntities;
+import org.apache.brooklyn.cloudfoundry.entity.VanillaCloudFoundryApplication;
+import org.cloudfoundry.client.v2.applications.ApplicationEntity;
+
+/**
+ * Changes the number of instances of the application of an entity.
+ */
+public interface InstanceScaler {
+
+    /**
+     * Scales through the {@code setInstancesNumber} effector of a {@link VanillaCloudFoundryApplication},
+     * and otherwise directly through the scale API of its location.
+     */
+    InstanceScaler DEFAULT = new InstanceScaler() {
+        @Override
+        public int scale(Entity entity, int instances) {
+            if (entity instanceof VanillaCloudFoundryApplication) {
+                ((VanillaCloudFoundryApplication) entity).setInstancesNumber(instances);
+                return entity.sensors().get(VanillaCloudFoundryApplication.INSTANCES);
+            }
+            ApplicationEntity application = CloudFoundryEntities.getCloudFoundryLocation(entity)
+                    .scaleInstances(CloudFoundryEntities.getMachine(entity), instances)
+                    .block();
+            entity.sensors().set(VanillaCloudFoundryApplication.INSTANCES, application.getInstances());
+            return application.getInstances();
+        }
+    };
+
+    /**
+     * Scales the application of the entity, returning the number of instances confirmed by the platform.
+     */
+    int scale(Entity entity, int instances);
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.policy;
+
+/**
+ * Decides the number of instances of an application from a metric per instance, such as the
+ * CPU usage or the request latency, which should stay between a lower and an upper bound.
+ * <p>
+ * When the metric is above the upper bound, the instances are scaled so that it would come down
+ * to the upper bound; when it is below the lower bound, so that it would go up to halfway
+ * between the bounds, which keeps a scale down from immediately triggering a scale up. A bound
+ * must be breached by {@code sustain} consecutive samples, the change is limited to
+ * {@code maxStep} instances, and no scaling happens within the cooldown of the previous one.
+ */
+class ScalingDecider {
+
+    private final int minInstances;
+    private final int maxInstances;
+    private final double lowerBound;
+    private final double upperBound;
+    private final int maxStep;
+    private final long scaleUpCooldown;
+    private final long scaleDownCooldown;
+    private final int sustain;
+
+    private int breaches;
+    private long lastScaling = Long.MIN_VALUE;
+
+    ScalingDecider(int minInstances, int maxInstances, double lowerBound, double upperBound, int maxStep,
+            long scaleUpCooldown, long scaleDownCooldown, int sustain) {
+        if (minInstances < 0 || maxInstances < minInstances) {
+            throw new IllegalArgumentException("Invalid instance range [" + minInstances + ", " + maxInstances + "]");
+        }
+        if (lowerBound < 0 || upperBound <= lowerBound) {
+            throw new IllegalArgumentException("Invalid metric bounds [" + lowerBound + ", " + upperBound + "]");
+        }
+        this.minInstances = minInstances;
+        this.maxInstances = maxInstances;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.maxStep = Math.max(1, maxStep);
+        this.scaleUpCooldown = scaleUpCooldown;
+        this.scaleDownCooldown = scaleDownCooldown;
+        this.sustain = Math.max(1, sustain);
+    }
+
+    /**
+     * The number of instances the application should have, given the last sample of the metric
+     * and the current number of instances; the current number if it should not be scaled now.
+     */
+    synchronized int decide(long now, double metric, int current) {
+        int bounded = clamp(current, minInstances, maxInstances);
+        if (bounded != current) {
+            // outside the configured range, e.g. after the range was changed or a manual scaling
+            return bounded;
+        }
+        int direction = metric > upperBound ? 1 : metric < lowerBound ? -1 : 0;
+        if (direction == 0) {
+            breaches = 0;
+            return current;
+        }
+        breaches = (Integer.signum(breaches) == direction) ? breaches + direction : direction;
+        if (Math.abs(breaches) < sustain) {
+            return current;
+        }
+        long cooldown = direction > 0 ? scaleUpCooldown : scaleDownCooldown;
+        if (lastScaling != Long.MIN_VALUE && now - lastScaling < cooldown) {
+            return current;
+        }
+        double target = direction > 0 ? upperBound : (lowerBound + upperBound) / 2;
+        int desired = (int) Math.ceil(current * metric / target);
+        if (direction > 0) {
+            desired = Math.max(desired, current + 1);
+        }
+        desired = clamp(desired, current - maxStep, current + maxStep);
+        return clamp(desired, minInstances, maxInstances);
+    }
+
+    /**
+     * Records that the application was scaled, starting the cooldown.
+     */
+    synchronized void scaled(long now) {
+        lastScaling = now;
+        breaches = 0;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -17,37 +17,27 @@
 package org.apache.brooklyn.cloudfoundry.suppliers;
 
 import org.cloudfoundry.client.CloudFoundryClient;
-import org.cloudfoundry.reactor.DefaultConnectionContext;
+import org.cloudfoundry.reactor.ConnectionContext;
+import org.cloudfoundry.reactor.TokenProvider;
 import org.cloudfoundry.reactor.client.ReactorCloudFoundryClient;
-import org.cloudfoundry.reactor.tokenprovider.PasswordGrantTokenProvider;
 
 import com.google.common.base.Supplier;
 
 public class CloudFoundryClientSupplier implements Supplier<CloudFoundryClient> {
 
-   private final String apiHost;
-   private final String user;
-   private final String password;
+   private final ConnectionContext connectionContext;
+   private final TokenProvider tokenProvider;
 
-   public CloudFoundryClientSupplier(String apiHost, String user, String password) {
-      this.apiHost = apiHost;
-      this.user = user;
-      this.password = password;
+   public CloudFoundryClientSupplier(ConnectionContext connectionContext, TokenProvider tokenProvider) {
+      this.connectionContext = connectionContext;
+      this.tokenProvider = tokenProvider;
    }
 
    @Override
    public CloudFoundryClient get() {
-      DefaultConnectionContext connectionContext = DefaultConnectionContext.builder()
-              .apiHost(apiHost)
-              .skipSslValidation(true) // TODO
-              .build();
-      PasswordGrantTokenProvider passwordGrantTokenProvider = PasswordGrantTokenProvider.builder()
-              .username(user)
-              .password(password)
-              .build();
       return ReactorCloudFoundryClient.builder()
               .connectionContext(connectionContext)
-              .tokenProvider(passwordGrantTokenProvider)
+              .tokenProvider(tokenProvider)
               .build();
    }
 }
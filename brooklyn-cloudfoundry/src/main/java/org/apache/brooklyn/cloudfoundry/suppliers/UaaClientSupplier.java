@@ -16,8 +16,8 @@
  */
 package org.apache.brooklyn.cloudfoundry.suppliers;
 
-import org.cloudfoundry.reactor.DefaultConnectionContext;
-import org.cloudfoundry.reactor.tokenprovider.PasswordGrantTokenProvider;
+import org.cloudfoundry.reactor.ConnectionContext;
+import org.cloudfoundry.reactor.TokenProvider;
 import org.cloudfoundry.reactor.uaa.ReactorUaaClient;
 import org.cloudfoundry.uaa.UaaClient;
 
@@ -25,29 +25,19 @@ import com.google.common.base.Supplier;
 
 public class UaaClientSupplier implements Supplier<UaaClient> {
 
-   private final String apiHost;
-   private final String user;
-   private final String password;
+   private final ConnectionContext connectionContext;
+   private final TokenProvider tokenProvider;
 
-   public UaaClientSupplier(String apiHost, String user, String password) {
-      this.apiHost = apiHost;
-      this.user = user;
-      this.password = password;
+   public UaaClientSupplier(ConnectionContext connectionContext, TokenProvider tokenProvider) {
+      this.connectionContext = connectionContext;
+      this.tokenProvider = tokenProvider;
    }
 
    @Override
    public UaaClient get() {
-      DefaultConnectionContext connectionContext = DefaultConnectionContext.builder()
-              .apiHost(apiHost)
-              .skipSslValidation(true) // TODO
-              .build();
-      PasswordGrantTokenProvider passwordGrantTokenProvider = PasswordGrantTokenProvider.builder()
-              .username(user)
-              .password(password)
-              .build();
       return ReactorUaaClient.builder()
               .connectionContext(connectionContext)
-              .tokenProvider(passwordGrantTokenProvider)
+              .tokenProvider(tokenProvider)
               .build();
    }
 }
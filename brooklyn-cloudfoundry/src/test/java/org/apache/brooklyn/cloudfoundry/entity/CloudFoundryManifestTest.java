@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.entity;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+
+import org.apache.brooklyn.cloudfoundry.entity.CloudFoundryManifest.ApplicationManifest;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+public class CloudFoundryManifestTest {
+
+    @Test
+    public void testParsesApplication() {
+        ApplicationManifest application = Iterables.getOnlyElement(CloudFoundryManifest.parse(
+                "name: spring-music\n" +
+                "path: file:/tmp/spring-music.jar\n" +
+                "memory: 1G\n" +
+                "disk_quota: 512M\n" +
+                "instances: 2\n" +
+                "env:\n" +
+                "  SPRING_PROFILES_ACTIVE: cloud\n" +
+                "services:\n" +
+                "- mysql\n").getApplications());
+        assertEquals(application.getName(), "spring-music");
+        assertEquals(application.getPath(), "file:/tmp/spring-music.jar");
+        assertEquals(application.getMemory(), 1024);
+        assertEquals(application.getDiskQuota(), 512);
+        assertEquals(application.getInstances(), 2);
+        assertEquals(application.getEnv(), ImmutableMap.of("SPRING_PROFILES_ACTIVE", "cloud"));
+        assertEquals(application.getServices(), ImmutableList.of("mysql"));
+    }
+
+    @Test
+    public void testDefaults() {
+        ApplicationManifest application = Iterables.getOnlyElement(CloudFoundryManifest.parse("name: app\nmemory: 128").getApplications());
+        assertEquals(application.getMemory(), 128);
+        assertEquals(application.getDiskQuota(), CloudFoundryManifest.DEFAULT_DISK_QUOTA);
+        assertEquals(application.getInstances(), CloudFoundryManifest.DEFAULT_INSTANCES);
+        assertEquals(application.getServices(), ImmutableList.of());
+    }
+
+    @Test
+    public void testRejectsInvalidManifests() {
+        assertInvalid("memory: 512M");
+        assertInvalid("name: app\nmemory: lots");
+        assertInvalid("name: app\nservices: mysql");
+        assertInvalid("name: [app");
+        assertInvalid("name: app\nhealth-check-type: tcp");
+        assertInvalid("name: app\nhealth-check-type: http");
+    }
+
+    @Test
+    public void testParsesHealthCheck() {
+        ApplicationManifest application = Iterables.getOnlyElement(CloudFoundryManifest.parse(
+                "name: app\n" +
+                "health-check-type: process\n").getApplications());
+        assertEquals(application.getHealthCheckType(), "process");
+    }
+
+    @Test
+    public void testApplicationsInheritTopLevelAttributes() {
+        CloudFoundryManifest manifest = CloudFoundryManifest.parse(
+                "memory: 512M\n" +
+                "env:\n" +
+                "  PROFILE: cloud\n" +
+                "  LEVEL: info\n" +
+                "applications:\n" +
+                "- name: web\n" +
+                "  env:\n" +
+                "    LEVEL: debug\n" +
+                "- name: worker\n" +
+                "  memory: 1G\n");
+        ApplicationManifest web = manifest.getApplications().get(0);
+        ApplicationManifest worker = manifest.getApplications().get(1);
+        assertEquals(web.getName(), "web");
+        assertEquals(web.getMemory(), 512);
+        assertEquals(web.getEnv(), ImmutableMap.of("PROFILE", "cloud", "LEVEL", "debug"));
+        assertEquals(worker.getName(), "worker");
+        assertEquals(worker.getMemory(), 1024);
+        assertEquals(worker.getEnv(), ImmutableMap.of("PROFILE", "cloud", "LEVEL", "info"));
+    }
+
+    @Test
+    public void testDeploymentOrderFollowsDependencies() {
+        CloudFoundryManifest manifest = CloudFoundryManifest.parse(
+                "applications:\n" +
+                "- name: web\n" +
+                "  depends-on: [api, auth]\n" +
+                "- name: api\n" +
+                "  depends-on: [auth]\n" +
+                "- name: auth\n" +
+                "- name: docs\n");
+        assertEquals(names(manifest.getApplications()), ImmutableList.of("web", "api", "auth", "docs"));
+        assertEquals(names(manifest.getDeploymentOrder()), ImmutableList.of("auth", "api", "web", "docs"));
+    }
+
+    @Test
+    public void testRejectsInvalidDependencies() {
+        assertInvalid("applications:\n- name: web\n  depends-on: [api]\n");
+        assertInvalid("applications:\n- name: web\n  depends-on: [api]\n- name: api\n  depends-on: [web]\n");
+        assertInvalid("applications:\n- name: web\n- name: web\n");
+        assertInvalid("applications: []\n");
+    }
+
+    @Test
+    public void testCachesByContent() {
+        ManifestCache cache = new ManifestCache();
+        assertSame(cache.parse("name: app\n"), cache.parse("name: app\n"));
+    }
+
+    private static List<String> names(List<ApplicationManifest> applications) {
+        List<String> result = Lists.newArrayList();
+        for (ApplicationManifest application : applications) {
+            result.add(application.getName());
+        }
+        return result;
+    }
+
+    private static void assertInvalid(String yaml) {
+        try {
+            CloudFoundryManifest.parse(yaml);
+            fail("Expected invalid manifest: " + yaml);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.entity;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.apache.brooklyn.cloudfoundry.entity.RollingWindow.Summary;
+import org.apache.brooklyn.util.time.Duration;
+import org.testng.annotations.Test;
+
+public class RollingWindowTest {
+
+    @Test
+    public void testSummarizesSamples() {
+        RollingWindow window = new RollingWindow(Duration.minutes(5), 200);
+        assertNull(window.summarize(0));
+        for (int i = 1; i <= 100; i++) {
+            window.add(i, i);
+        }
+        Summary summary = window.summarize(100);
+        assertEquals(summary.mean, 50.5);
+        assertEquals(summary.p95, 95.0);
+        assertEquals(summary.max, 100.0);
+    }
+
+    @Test
+    public void testIgnoresSamplesOutsideTheWindow() {
+        RollingWindow window = new RollingWindow(Duration.seconds(10), 100);
+        window.add(0, 1000);
+        window.add(5000, 1);
+        window.add(12000, 3);
+        Summary summary = window.summarize(12000);
+        assertEquals(summary.mean, 2.0);
+        assertEquals(summary.max, 3.0);
+        assertNull(window.summarize(30000));
+    }
+
+    @Test
+    public void testGrowsToKeepAllSamplesWithinTheWindow() {
+        RollingWindow window = new RollingWindow(Duration.minutes(5), 4);
+        for (int i = 1; i <= 6; i++) {
+            window.add(i, i);
+        }
+        Summary summary = window.summarize(6);
+        assertEquals(summary.mean, 3.5);
+        assertEquals(summary.p95, 6.0);
+        assertEquals(summary.max, 6.0);
+        assertEquals(window.capacity(), 8);
+    }
+
+    @Test
+    public void testOverwritesSamplesOutsideTheWindow() {
+        RollingWindow window = new RollingWindow(Duration.millis(10), 4);
+        for (int i = 0; i < 100; i++) {
+            window.add(i * 5, i);
+        }
+        Summary summary = window.summarize(495);
+        assertEquals(summary.mean, 98.0);
+        assertEquals(summary.max, 99.0);
+        assertEquals(window.capacity(), 4);
+    }
+}
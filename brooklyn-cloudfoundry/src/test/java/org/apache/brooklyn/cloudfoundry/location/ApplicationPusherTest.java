@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+
+import org.apache.brooklyn.cloudfoundry.location.ApplicationPusher.PushResult;
+import org.apache.brooklyn.util.os.Os;
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.operations.CloudFoundryOperations;
+import org.cloudfoundry.operations.applications.PushApplicationRequest;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class ApplicationPusherTest {
+
+    private File indexDir;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() {
+        indexDir = Os.newTempDir(getClass());
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        if (indexDir != null) Os.deleteRecursively(indexDir);
+    }
+
+    @Test
+    public void testPushesNothingWithoutApplicationPath() {
+        ApplicationPusher pusher = new ApplicationPusher(unused(CloudFoundryClient.class), unused(CloudFoundryOperations.class),
+                "api.example.com", "space", new FingerprintIndex(indexDir), new DropletCache());
+        PushResult result = pusher.pushBits("app-id", PushApplicationRequest.builder().name("app").build(),
+                ImmutableMap.<String, Object>of(), ImmutableList.<String>of()).block();
+
+        assertEquals(result.applicationId, "app-id");
+        assertNull(result.upload);
+        assertFalse(result.dropletReused);
+    }
+
+    /** A client which fails the test if it is used at all. */
+    private static <T> T unused(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, (proxy, method, args) -> {
+            throw new AssertionError("Unexpected call to " + method);
+        }));
+    }
+}
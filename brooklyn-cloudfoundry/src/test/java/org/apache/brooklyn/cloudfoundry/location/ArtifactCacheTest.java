@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.brooklyn.util.os.Os;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+public class ArtifactCacheTest {
+
+    private static final String WAR = "classpath://brooklyn-example-hello-world-sql-webapp-in-paas.war";
+
+    private File directory;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() {
+        directory = Os.newTempDir(getClass());
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        if (directory != null) Os.deleteRecursively(directory);
+    }
+
+    @Test
+    public void testMavenUrl() {
+        assertEquals(ArtifactCache.getMavenUrl("mvn:org.example/app/1.0", "https://repo.example.org/maven2/"),
+                "https://repo.example.org/maven2/org/example/app/1.0/app-1.0.jar");
+        assertEquals(ArtifactCache.getMavenUrl("mvn:org.example/app/1.0/war/exec", "https://repo.example.org/maven2"),
+                "https://repo.example.org/maven2/org/example/app/1.0/app-1.0-exec.war");
+    }
+
+    @Test
+    public void testLocalFilesAreUsedInPlace() throws Exception {
+        Path file = Files.write(new File(directory, "app.zip").toPath(), "bits".getBytes(Charsets.UTF_8));
+        ArtifactCache cache = new ArtifactCache(new File(directory, "cache"), Long.MAX_VALUE);
+        assertEquals(cache.get(file.toUri().toString(), null, null), file);
+        assertEquals(cache.get(file.toString(), null, null), file);
+    }
+
+    @Test
+    public void testVerifiesChecksum() throws Exception {
+        Path file = Files.write(new File(directory, "app.zip").toPath(), "bits".getBytes(Charsets.UTF_8));
+        String sha256 = Hashing.sha256().hashString("bits", Charsets.UTF_8).toString();
+        String sha1 = Hashing.sha1().hashString("bits", Charsets.UTF_8).toString();
+        ArtifactCache cache = new ArtifactCache(new File(directory, "cache"), Long.MAX_VALUE);
+        assertEquals(cache.get(file.toString(), sha256, null), file);
+        assertEquals(cache.get(file.toString(), sha1.toUpperCase(), null), file);
+        try {
+            cache.get(file.toString(), Hashing.sha256().hashString("other", Charsets.UTF_8).toString(), null);
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains(sha256), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCachesClasspathArtifact() throws Exception {
+        ArtifactCache cache = new ArtifactCache(new File(directory, "cache"), Long.MAX_VALUE);
+        Path first = cache.get(WAR, null, null);
+        assertTrue(first.startsWith(directory.toPath()), "path=" + first);
+        assertTrue(first.toString().endsWith(".war"), "path=" + first);
+        long modified = Files.getLastModifiedTime(first).toMillis();
+
+        Path second = cache.get(WAR, null, null);
+        assertEquals(second, first);
+        assertEquals(Files.getLastModifiedTime(second).toMillis(), modified);
+    }
+
+    @Test
+    public void testEvictsWhenTooLarge() throws Exception {
+        ArtifactCache cache = new ArtifactCache(new File(directory, "cache"), 1);
+        Path war = cache.get(WAR, null, null);
+        Path other = cache.get("classpath://logback-test.xml", null, null);
+        assertTrue(Files.exists(other));
+        assertFalse(Files.exists(war));
+    }
+
+    @Test
+    public void testDoesNotEvictLeasedArtifact() throws Exception {
+        ArtifactCache cache = new ArtifactCache(new File(directory, "cache"), 1);
+        Path war;
+        try (ArtifactCache.Lease lease = cache.acquire(WAR, null, null)) {
+            war = lease.getPath();
+            Path other = cache.get("classpath://logback-test.xml", null, null);
+            assertTrue(Files.exists(other));
+            assertTrue(Files.exists(war));
+        }
+        cache.get("classpath://logback-test.xml", null, null);
+        assertFalse(Files.exists(war));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.brooklyn.cloudfoundry.location.FingerprintIndex.FileFingerprint;
+import org.apache.brooklyn.cloudfoundry.location.FingerprintIndex.Fingerprints;
+import org.apache.brooklyn.util.os.Os;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class CfIgnoreTest {
+
+    @Test
+    public void testDefaults() {
+        CfIgnore ignore = CfIgnore.of(null, null);
+        assertTrue(ignore.isIgnoredWithParents(".git/config"));
+        assertTrue(ignore.isIgnoredWithParents("sub/.svn/entries"));
+        assertTrue(ignore.isIgnoredWithParents("manifest.yml"));
+        assertTrue(ignore.isIgnoredWithParents("static/.DS_Store"));
+        assertFalse(ignore.isIgnoredWithParents("config/manifest.yml"));
+        assertFalse(ignore.isIgnoredWithParents("WEB-INF/web.xml"));
+    }
+
+    @Test
+    public void testPatterns() {
+        CfIgnore ignore = CfIgnore.of("# build output\n/target/\n*.map\nsrc/test/**\n\n!keep.map\nlogs/", ImmutableList.of("*.log"));
+        assertTrue(ignore.isIgnoredWithParents("target/classes/App.class"));
+        assertFalse(ignore.isIgnoredWithParents("lib/target/App.class"));
+        assertTrue(ignore.isIgnoredWithParents("static/js/app.js.map"));
+        assertFalse(ignore.isIgnoredWithParents("static/js/keep.map"));
+        assertTrue(ignore.isIgnoredWithParents("src/test/resources/data.json"));
+        assertFalse(ignore.isIgnoredWithParents("src/main/resources/data.json"));
+        assertTrue(ignore.isIgnoredWithParents("a/logs/today.txt"));
+        assertFalse(ignore.isIgnoredWithParents("logs"));
+        assertTrue(ignore.isIgnoredWithParents("server.log"));
+        assertFalse(ignore.isIgnoredWithParents("static/js/app.js"));
+    }
+
+    @Test
+    public void testFingerprintsLeaveOutIgnoredFiles() throws Exception {
+        File directory = Os.newTempDir(getClass());
+        try {
+            Path root = new File(directory, "app").toPath();
+            write(root, ".cfignore", "*.tmp\n");
+            write(root, ".git/HEAD", "ref: refs/heads/master");
+            write(root, "index.html", "<html/>");
+            write(root, "cache/data.tmp", "0123456789");
+            write(root, "notes.txt", "notes");
+
+            Fingerprints fingerprints = new FingerprintIndex(new File(directory, "index"))
+                    .fingerprint(root, ImmutableList.of("notes.txt"));
+            List<String> paths = Lists.newArrayList();
+            long size = 0;
+            for (FileFingerprint file : fingerprints.files) {
+                paths.add(file.path);
+                size += file.size;
+            }
+            assertTrue(paths.equals(ImmutableList.of("index.html")), "paths=" + paths);
+            assertTrue(fingerprints.originalBytes > size, "original=" + fingerprints.originalBytes);
+        } finally {
+            Os.deleteRecursively(directory);
+        }
+    }
+
+    private static void write(Path root, String path, String contents) throws Exception {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, contents.getBytes(Charsets.UTF_8));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import org.apache.brooklyn.util.core.config.ConfigBag;
+import org.apache.brooklyn.util.time.Duration;
+import org.cloudfoundry.client.CloudFoundryClient;
+import org.cloudfoundry.reactor.TokenProvider;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class CloudFoundryClientRegistryImplTest {
+
+    private CloudFoundryConnectionContextPool connectionContextPool;
+    private CloudFoundryClientRegistryImpl registry;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception {
+        connectionContextPool = new CloudFoundryConnectionContextPool();
+        registry = new CloudFoundryClientRegistryImpl(2, Duration.minutes(1), connectionContextPool);
+    }
+
+    @Test
+    public void testKeyIgnoresUnrelatedConfig() {
+        ConfigBag conf = newConf("api.example.com", "user", "secret", "org", "space");
+        ConfigBag other = newConf("api.example.com", "user", "secret", "org", "space")
+                .configure(CloudFoundryLocationConfig.OPERATIONS_TIMEOUT, Duration.ONE_MINUTE);
+        assertEquals(CloudFoundryClientRegistryImpl.ClientKey.of(conf), CloudFoundryClientRegistryImpl.ClientKey.of(other));
+    }
+
+    @Test
+    public void testKeyDistinguishesTenants() {
+        CloudFoundryClientRegistryImpl.ClientKey key = CloudFoundryClientRegistryImpl.ClientKey.of(
+                newConf("api.example.com", "user", "secret", "org", "space"));
+        assertNotEquals(key, CloudFoundryClientRegistryImpl.ClientKey.of(newConf("api.other.com", "user", "secret", "org", "space")));
+        assertNotEquals(key, CloudFoundryClientRegistryImpl.ClientKey.of(newConf("api.example.com", "other", "secret", "org", "space")));
+        assertNotEquals(key, CloudFoundryClientRegistryImpl.ClientKey.of(newConf("api.example.com", "user", "changed", "org", "space")));
+        assertNotEquals(key, CloudFoundryClientRegistryImpl.ClientKey.of(newConf("api.example.com", "user", "secret", "other", "space")));
+        assertNotEquals(key, CloudFoundryClientRegistryImpl.ClientKey.of(newConf("api.example.com", "user", "secret", "org", "other")));
+    }
+
+    @Test
+    public void testReusesClientsOfSameTenant() {
+        CloudFoundryClient first = registry.getCloudFoundryClient(newConf("api.example.com", "user", "secret", "org", "space"), true);
+        CloudFoundryClient second = registry.getCloudFoundryClient(newConf("api.example.com", "user", "secret", "org", "space"), true);
+        CloudFoundryClient otherSpace = registry.getCloudFoundryClient(newConf("api.example.com", "user", "secret", "org", "other"), true);
+
+        assertSame(first, second);
+        assertNotSame(first, otherSpace);
+        assertEquals(registry.getStats().hitCount(), 1);
+        assertEquals(registry.getStats().missCount(), 2);
+    }
+
+    @Test
+    public void testDoesNotCacheWhenReuseNotAllowed() {
+        ConfigBag conf = newConf("api.example.com", "user", "secret", "org", "space");
+        CloudFoundryClient shared = registry.getCloudFoundryClient(conf, true);
+        CloudFoundryClient first = registry.getCloudFoundryClient(conf, false);
+        CloudFoundryClient second = registry.getCloudFoundryClient(conf, false);
+
+        assertNotSame(first, second);
+        assertNotSame(first, shared);
+        assertEquals(registry.size(), 1);
+    }
+
+    @Test
+    public void testEvictsWhenFull() {
+        registry.getCloudFoundryClient(newConf("api.example.com", "user", "secret", "org", "space1"), true);
+        registry.getCloudFoundryClient(newConf("api.example.com", "user", "secret", "org", "space2"), true);
+        registry.getCloudFoundryClient(newConf("api.example.com", "user", "secret", "org", "space3"), true);
+
+        assertEquals(registry.size(), 2);
+        assertEquals(registry.getStats().evictionCount(), 1);
+    }
+
+    @Test
+    public void testSharesConnectionContextPerEndpoint() {
+        registry.getCloudFoundryClient(newConf("api.example.com", "user", "secret", "org", "space1"), true);
+        registry.getCloudFoundryClient(newConf("api.example.com", "other", "secret", "org", "space2"), true);
+        assertEquals(connectionContextPool.size(), 1);
+
+        registry.getCloudFoundryClient(newConf("api.other.com", "user", "secret", "org", "space1"), true);
+        assertEquals(connectionContextPool.size(), 2);
+    }
+
+    @Test
+    public void testSharesTokenProviderPerCredentials() {
+        TokenProvider first = registry.getTokenProvider(newConf("api.example.com", "user", "secret", "org", "space1"), true);
+        TokenProvider second = registry.getTokenProvider(newConf("api.example.com", "user", "secret", "other", "space2"), true);
+        TokenProvider otherUser = registry.getTokenProvider(newConf("api.example.com", "other", "secret", "org", "space1"), true);
+
+        assertSame(first, second);
+        assertNotSame(first, otherUser);
+    }
+
+    @Test
+    public void testClosesClientsWhenLastLocationReleases() {
+        ConfigBag conf = newConf("api.example.com", "user", "secret", "org", "space");
+        registry.retain(conf);
+        registry.retain(conf);
+        registry.getCloudFoundryClient(conf, true);
+
+        registry.release(conf);
+        assertEquals(registry.size(), 1);
+        assertEquals(connectionContextPool.size(), 1);
+
+        registry.release(conf);
+        assertEquals(registry.size(), 0);
+        assertEquals(connectionContextPool.size(), 0);
+    }
+
+    @Test
+    public void testDoesNotEvictRetainedClients() {
+        ConfigBag conf = newConf("api.example.com", "user", "secret", "org", "space1");
+        CloudFoundryClient retained = registry.getCloudFoundryClient(conf, true);
+        registry.retain(conf);
+        registry.getCloudFoundryClient(newConf("api.example.com", "user", "secret", "org", "space2"), true);
+        registry.getCloudFoundryClient(newConf("api.example.com", "user", "secret", "org", "space3"), true);
+        registry.getCloudFoundryClient(newConf("api.example.com", "user", "secret", "org", "space4"), true);
+
+        assertSame(registry.getCloudFoundryClient(conf, true), retained);
+        assertEquals(registry.size(), 3);
+
+        registry.release(conf);
+        assertEquals(registry.size(), 2);
+    }
+
+    @Test
+    public void testUnsharedClientsHoldNothingOfTheirOwn() {
+        ConfigBag conf = newConf("api.example.com", "user", "secret", "org", "space");
+        registry.retain(conf);
+        RefreshingTokenProvider shared = (RefreshingTokenProvider) registry.getTokenProvider(conf, true);
+        for (int i = 0; i < 10; i++) {
+            assertSame(registry.getTokenProvider(conf, false), shared);
+        }
+        assertEquals(registry.size(), 1);
+        assertEquals(connectionContextPool.size(), 1);
+
+        registry.release(conf);
+        assertTrue(shared.isClosed());
+        assertEquals(connectionContextPool.size(), 0);
+    }
+
+    private ConfigBag newConf(String endpoint, String identity, String credential, String org, String space) {
+        return ConfigBag.newInstance()
+                .configure(CloudFoundryLocationConfig.CLOUD_ENDPOINT, endpoint)
+                .configure(CloudFoundryLocationConfig.ACCESS_IDENTITY, identity)
+                .configure(CloudFoundryLocationConfig.ACCESS_CREDENTIAL, credential)
+                .configure(CloudFoundryLocationConfig.CF_ORG, org)
+                .configure(CloudFoundryLocationConfig.CF_SPACE, space);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.brooklyn.cloudfoundry.location.FingerprintIndex.FileFingerprint;
+import org.apache.brooklyn.util.os.Os;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Stopwatch;
+
+public class ParallelZipWriterTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelZipWriterTest.class);
+
+    private File directory;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() {
+        directory = Os.newTempDir(getClass());
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        if (directory != null) Os.deleteRecursively(directory);
+    }
+
+    @Test
+    public void testWritesReadableZip() throws Exception {
+        Path root = createTree(200, 16 * 1024);
+        Files.write(root.resolve("large.bin"), randomBytes(new Random(0), (int) ParallelZipWriter.MAX_BUFFERED_ENTRY_SIZE + 1));
+        List<FileFingerprint> files = fingerprint(root);
+
+        Path zip = new File(directory, "bits.zip").toPath();
+        new ParallelZipWriter(4).write(zip, files, path -> Files.newInputStream(root.resolve(path)));
+
+        assertZipContains(zip, files);
+    }
+
+    @Test
+    public void testWritesEmptyZip() throws Exception {
+        Path zip = new File(directory, "bits.zip").toPath();
+        new ParallelZipWriter(4).write(zip, Collections.<FileFingerprint>emptyList(), path -> null);
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertEquals(zipFile.size(), 0);
+        }
+    }
+
+    /**
+     * Compares the time taken to package a tree of 10000 files with a {@link ZipOutputStream}
+     * and with a {@link ParallelZipWriter}.
+     */
+    @Test(groups = "Integration")
+    public void testPackagingTime() throws Exception {
+        final Path root = createTree(10000, 32 * 1024);
+        List<FileFingerprint> files = fingerprint(root);
+
+        for (int i = 0; i < 3; i++) {
+            Path sequential = new File(directory, "sequential.zip").toPath();
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(sequential))) {
+                for (FileFingerprint file : files) {
+                    out.putNextEntry(new ZipEntry(file.path));
+                    Files.copy(root.resolve(file.path), out);
+                    out.closeEntry();
+                }
+            }
+            long sequentialMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+            Path parallel = new File(directory, "parallel.zip").toPath();
+            stopwatch = Stopwatch.createStarted();
+            new ParallelZipWriter(ParallelZipWriter.DEFAULT_WINDOW).write(parallel, files, path -> Files.newInputStream(root.resolve(path)));
+            long parallelMillis = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+
+            LOG.info("Packaged {} files: ZipOutputStream {}ms ({} bytes), ParallelZipWriter {}ms ({} bytes)",
+                    new Object[] {files.size(), sequentialMillis, Files.size(sequential), parallelMillis, Files.size(parallel)});
+        }
+    }
+
+    private Path createTree(int count, int maxSize) throws Exception {
+        Path root = new File(directory, "app").toPath();
+        Random random = new Random(count);
+        for (int i = 0; i < count; i++) {
+            Path file = root.resolve("dir" + (i % 50) + "/file" + i + ".txt");
+            Files.createDirectories(file.getParent());
+            // compressible content, like the text and classes of an exploded application
+            byte[] content = new byte[random.nextInt(maxSize)];
+            for (int j = 0; j < content.length; j++) {
+                content[j] = (byte) ('a' + random.nextInt(8));
+            }
+            Files.write(file, content);
+        }
+        return root;
+    }
+
+    private List<FileFingerprint> fingerprint(Path root) throws Exception {
+        return new FingerprintIndex(new File(directory, "index")).fingerprint(root, null).files;
+    }
+
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void assertZipContains(Path zip, List<FileFingerprint> files) throws Exception {
+        try (ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertEquals(zipFile.size(), files.size());
+            for (FileFingerprint file : files) {
+                ZipEntry entry = zipFile.getEntry(file.path);
+                assertNotNull(entry, file.path);
+                assertEquals(entry.getSize(), file.size, file.path);
+                try (InputStream in = zipFile.getInputStream(entry)) {
+                    assertEquals(FingerprintIndex.sha1(in), file.sha1, file.path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.brooklyn.util.time.Duration;
+import org.testng.annotations.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+public class RefreshingTokenProviderTest {
+
+    @Test
+    public void testReadsLifetimeFromBearerToken() {
+        long exp = System.currentTimeMillis() / 1000 + 600;
+        Duration lifetime = RefreshingTokenProvider.getLifetime("bearer " + newJwt("{\"exp\":" + exp + ",\"user_name\":\"admin\"}"));
+        assertTrue(lifetime.isLongerThan(Duration.minutes(9)), "lifetime=" + lifetime);
+        assertTrue(lifetime.isShorterThan(Duration.minutes(11)), "lifetime=" + lifetime);
+    }
+
+    @Test
+    public void testExpiredTokenHasNoLifetime() {
+        long exp = System.currentTimeMillis() / 1000 - 600;
+        assertEquals(RefreshingTokenProvider.getLifetime("bearer " + newJwt("{\"exp\":" + exp + "}")), Duration.ZERO);
+    }
+
+    @Test
+    public void testDefaultsLifetimeWhenNotReadable() {
+        assertEquals(RefreshingTokenProvider.getLifetime("bearer not-a-jwt"), RefreshingTokenProvider.DEFAULT_TOKEN_LIFETIME);
+        assertEquals(RefreshingTokenProvider.getLifetime("bearer " + newJwt("{\"user_name\":\"admin\"}")), RefreshingTokenProvider.DEFAULT_TOKEN_LIFETIME);
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneGrant() throws Exception {
+        final AtomicInteger grants = new AtomicInteger();
+        final RefreshingTokenProvider provider = new RefreshingTokenProvider("admin", Duration.ZERO, Duration.minutes(1),
+                connectionContext -> Mono.fromCallable(() -> {
+                            Thread.sleep(100);
+                            return "bearer token-" + grants.incrementAndGet();
+                        })
+                        .subscribeOn(Schedulers.elastic()));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> tokens = Lists.newArrayList();
+            for (int i = 0; i < 8; i++) {
+                tokens.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return provider.getToken(null).block();
+                    }
+                }));
+            }
+            for (Future<String> token : tokens) {
+                assertEquals(token.get(10, TimeUnit.SECONDS), "bearer token-1");
+            }
+            assertEquals(grants.get(), 1);
+            assertEquals(provider.getRefreshCount(), 1);
+        } finally {
+            executor.shutdownNow();
+            provider.close();
+        }
+    }
+
+    @Test
+    public void testRefreshesInBackgroundAndServesCurrentTokenMeanwhile() throws Exception {
+        final AtomicInteger grants = new AtomicInteger();
+        final CountDownLatch refreshStarted = new CountDownLatch(1);
+        final CountDownLatch refreshAllowed = new CountDownLatch(1);
+        final String first = "bearer " + newJwt("{\"exp\":" + System.currentTimeMillis() / 1000 + "}");
+        RefreshingTokenProvider provider = new RefreshingTokenProvider("admin", Duration.ZERO, Duration.millis(100),
+                connectionContext -> Mono.fromCallable(() -> {
+                            if (grants.incrementAndGet() == 1) return first;
+                            refreshStarted.countDown();
+                            refreshAllowed.await();
+                            return "bearer token-2";
+                        })
+                        .subscribeOn(Schedulers.elastic()));
+        try {
+            assertEquals(provider.getToken(null).block(), first);
+
+            // the expired token is refreshed after the minimum delay, without any caller asking
+            assertTrue(refreshStarted.await(10, TimeUnit.SECONDS), "refresh not scheduled");
+            assertEquals(provider.getToken(null).block(java.time.Duration.ofSeconds(1)), first);
+
+            refreshAllowed.countDown();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (provider.getRefreshCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(provider.getToken(null).block(), "bearer token-2");
+            assertEquals(grants.get(), 2);
+        } finally {
+            refreshAllowed.countDown();
+            provider.close();
+        }
+    }
+
+    private String newJwt(String payload) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString("{\"alg\":\"RS256\"}".getBytes(Charsets.UTF_8))
+                + "." + encoder.encodeToString(payload.getBytes(Charsets.UTF_8))
+                + ".signature";
+    }
+}
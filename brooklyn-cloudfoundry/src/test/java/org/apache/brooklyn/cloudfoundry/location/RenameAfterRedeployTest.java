@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.brooklyn.util.time.Duration;
+import org.testng.annotations.Test;
+
+import reactor.core.publisher.Mono;
+
+public class RenameAfterRedeployTest {
+
+    @Test
+    public void testRetriesFailedRename() {
+        final AtomicInteger calls = new AtomicInteger();
+        CloudFoundryLocation.renameAfterRedeploy(
+                () -> calls.incrementAndGet() < 3
+                        ? Mono.<Void>error(new IllegalStateException("name taken"))
+                        : Mono.<Void>empty(),
+                "app", "app-tmp", 3, Duration.millis(1))
+                .block();
+
+        assertEquals(calls.get(), 3);
+    }
+
+    @Test
+    public void testReportsTemporaryNameWhenRenameFails() {
+        final AtomicInteger calls = new AtomicInteger();
+        try {
+            CloudFoundryLocation.renameAfterRedeploy(
+                    () -> {
+                        calls.incrementAndGet();
+                        return Mono.<Void>error(new IllegalStateException("name taken"));
+                    },
+                    "app", "app-tmp", 3, Duration.millis(1))
+                    .block();
+            fail("rename should have failed");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("app-tmp"), "message=" + e.getMessage());
+            assertEquals(e.getCause().getMessage(), "name taken");
+        }
+        assertEquals(calls.get(), 3);
+    }
+}
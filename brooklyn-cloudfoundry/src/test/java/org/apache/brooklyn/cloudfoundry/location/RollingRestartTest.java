@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.location;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.brooklyn.util.time.Duration;
+import org.cloudfoundry.client.v2.applications.ApplicationInstanceInfo;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import reactor.core.publisher.Mono;
+
+public class RollingRestartTest {
+
+    private static final Duration POLL_PERIOD = Duration.millis(1);
+    private static final Duration BATCH_TIMEOUT = Duration.seconds(10);
+
+    @Test
+    public void testRestartsAllInstancesInBatches() {
+        FakeInstances instances = new FakeInstances(5, ImmutableSet.<String>of(), ImmutableSet.<String>of());
+        List<Integer> progress = Lists.newArrayList();
+        new RollingRestart(instances, POLL_PERIOD, 2, BATCH_TIMEOUT,
+                (restartedInstances, total, batchDuration) -> progress.add(restartedInstances))
+                .restart("app")
+                .block();
+
+        assertEquals(progress, Lists.newArrayList(2, 4, 5));
+        assertEquals(instances.terminated, Lists.newArrayList("0", "1", "2", "3", "4"));
+        assertTrue(instances.allRunning(), "instances=" + instances.instances);
+    }
+
+    @Test
+    public void testNeverTakesDownMoreThanMaxUnavailable() {
+        FakeInstances instances = new FakeInstances(6, ImmutableSet.<String>of(), ImmutableSet.<String>of());
+        new RollingRestart(instances, POLL_PERIOD, 2, BATCH_TIMEOUT, (restartedInstances, total, batchDuration) -> { })
+                .restart("app")
+                .block();
+
+        assertEquals(instances.maxDown, 2);
+    }
+
+    @Test
+    public void testFailsWhenRestartedInstanceCrashes() {
+        FakeInstances instances = new FakeInstances(4, ImmutableSet.<String>of(), ImmutableSet.of("1"));
+        try {
+            new RollingRestart(instances, POLL_PERIOD, 1, BATCH_TIMEOUT, (restartedInstances, total, batchDuration) -> { })
+                    .restart("app")
+                    .block();
+            fail("restart should have failed");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("crashed"), "message=" + e.getMessage());
+        }
+        // the batches after the crash are not restarted
+        assertEquals(instances.terminated, Lists.newArrayList("0", "1"));
+    }
+
+    @Test
+    public void testRestartsInstancesWhichCrashedBeforeTheRestart() {
+        FakeInstances instances = new FakeInstances(3, ImmutableSet.of("2"), ImmutableSet.<String>of());
+        new RollingRestart(instances, POLL_PERIOD, 1, BATCH_TIMEOUT, (restartedInstances, total, batchDuration) -> { })
+                .restart("app")
+                .block();
+
+        assertEquals(instances.terminated, Lists.newArrayList("0", "1", "2"));
+        assertTrue(instances.allRunning(), "instances=" + instances.instances);
+    }
+
+    /**
+     * Instances which go down when terminated and are running again, or crashed, after a few polls.
+     */
+    private static class FakeInstances implements RollingRestart.Instances {
+        private static final int POLLS_TO_START = 2;
+
+        final Map<String, ApplicationInstanceInfo> instances = Maps.newTreeMap();
+        final Map<String, Integer> starting = Maps.newHashMap();
+        final Set<String> crashOnRestart;
+        final List<String> terminated = Lists.newArrayList();
+        int maxDown;
+        double clock = 1000;
+
+        FakeInstances(int count, Set<String> crashed, Set<String> crashOnRestart) {
+            for (int i = 0; i < count; i++) {
+                String index = String.valueOf(i);
+                instances.put(index, instance(crashed.contains(index) ? RollingRestart.CRASHED : RollingRestart.RUNNING));
+            }
+            this.crashOnRestart = crashOnRestart;
+        }
+
+        @Override
+        public synchronized Mono<Map<String, ApplicationInstanceInfo>> get(String applicationId) {
+            for (String index : Lists.newArrayList(starting.keySet())) {
+                int polls = starting.get(index) - 1;
+                if (polls > 0) {
+                    starting.put(index, polls);
+                } else {
+                    starting.remove(index);
+                    instances.put(index, instance(crashOnRestart.contains(index) ? RollingRestart.CRASHED : RollingRestart.RUNNING));
+                }
+            }
+            return Mono.just(ImmutableMap.copyOf(instances));
+        }
+
+        @Override
+        public synchronized Mono<Void> terminate(String applicationId, String index) {
+            terminated.add(index);
+            instances.put(index, instance("DOWN"));
+            starting.put(index, POLLS_TO_START);
+            int down = 0;
+            for (ApplicationInstanceInfo instance : instances.values()) {
+                if ("DOWN".equals(instance.getState())) down++;
+            }
+            maxDown = Math.max(maxDown, down);
+            return Mono.empty();
+        }
+
+        synchronized boolean allRunning() {
+            for (ApplicationInstanceInfo instance : instances.values()) {
+                if (!RollingRestart.RUNNING.equals(instance.getState())) return false;
+            }
+            return true;
+        }
+
+        private ApplicationInstanceInfo instance(String state) {
+            clock += 1;
+            return ApplicationInstanceInfo.builder().state(state).since(clock).build();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.policy;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.List;
+
+import org.apache.brooklyn.api.entity.Entity;
+import org.apache.brooklyn.api.entity.EntitySpec;
+import org.apache.brooklyn.api.policy.PolicySpec;
+import org.apache.brooklyn.cloudfoundry.entity.CloudFoundryInstanceStatistics;
+import org.apache.brooklyn.cloudfoundry.entity.VanillaCloudFoundryApplication;
+import org.apache.brooklyn.core.test.BrooklynAppUnitTestSupport;
+import org.apache.brooklyn.core.test.entity.TestEntity;
+import org.apache.brooklyn.test.Asserts;
+import org.apache.brooklyn.util.time.Duration;
+import org.testng.annotations.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class CloudFoundryAutoScalerPolicyTest extends BrooklynAppUnitTestSupport {
+
+    @Test
+    public void testScalesThroughScaler() {
+        RecordingScaler scaler = new RecordingScaler();
+        TestEntity entity = newEntity(Duration.millis(10), scaler);
+
+        entity.sensors().set(CloudFoundryInstanceStatistics.CPU_P95, 1.6);
+
+        Asserts.succeedsEventually(() -> assertEquals(scaler.getScalings(), ImmutableList.of(4)));
+        Asserts.succeedsEventually(() -> assertEquals(entity.sensors().get(CloudFoundryAutoScalerPolicy.DESIRED_INSTANCES), (Integer) 4));
+    }
+
+    @Test
+    public void testCooldownCoversStatisticsWindow() {
+        RecordingScaler scaler = new RecordingScaler();
+        TestEntity entity = newEntity(Duration.minutes(5), scaler);
+
+        entity.sensors().set(CloudFoundryInstanceStatistics.CPU_P95, 1.6);
+        Asserts.succeedsEventually(() -> assertEquals(scaler.getScalings(), ImmutableList.of(4)));
+
+        // still above the bound, but mostly from samples taken before the scaling
+        entity.sensors().set(CloudFoundryInstanceStatistics.CPU_P95, 1.5);
+        entity.sensors().set(CloudFoundryInstanceStatistics.CPU_P95, 1.4);
+        Asserts.succeedsContinually(() -> assertEquals(scaler.getScalings(), ImmutableList.of(4)));
+    }
+
+    private TestEntity newEntity(Duration statisticsWindow, InstanceScaler scaler) {
+        TestEntity entity = app.createAndManageChild(EntitySpec.create(TestEntity.class)
+                .configure(CloudFoundryInstanceStatistics.STATISTICS_WINDOW, statisticsWindow));
+        entity.sensors().set(VanillaCloudFoundryApplication.INSTANCES, 2);
+        entity.policies().add(PolicySpec.create(CloudFoundryAutoScalerPolicy.class)
+                .configure(CloudFoundryAutoScalerPolicy.SCALER, scaler)
+                .configure(CloudFoundryAutoScalerPolicy.SUSTAIN, 1)
+                .configure(CloudFoundryAutoScalerPolicy.SCALE_UP_COOLDOWN, Duration.ZERO)
+                .configure(CloudFoundryAutoScalerPolicy.SCALE_DOWN_COOLDOWN, Duration.ZERO));
+        return entity;
+    }
+
+    /**
+     * Stands in for the Cloud Controller: records the scalings and confirms them right away.
+     */
+    private static class RecordingScaler implements InstanceScaler {
+        private final List<Integer> scalings = Lists.newCopyOnWriteArrayList();
+
+        @Override
+        public int scale(Entity entity, int instances) {
+            scalings.add(instances);
+            entity.sensors().set(VanillaCloudFoundryApplication.INSTANCES, instances);
+            return instances;
+        }
+
+        List<Integer> getScalings() {
+            return ImmutableList.copyOf(scalings);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.brooklyn.cloudfoundry.policy;
+
+import static org.testng.Assert.assertEquals;
+
+import org.testng.annotations.Test;
+
+public class ScalingDeciderTest {
+
+    private static final long COOLDOWN = 60000;
+
+    @Test
+    public void testScalesUpProportionally() {
+        ScalingDecider decider = new ScalingDecider(1, 10, 0.2, 0.8, 10, COOLDOWN, COOLDOWN, 1);
+        assertEquals(decider.decide(0, 1.6, 2), 4);
+    }
+
+    @Test
+    public void testScalesDownToHalfwayBetweenBounds() {
+        ScalingDecider decider = new ScalingDecider(1, 10, 0.2, 0.8, 10, COOLDOWN, COOLDOWN, 1);
+        assertEquals(decider.decide(0, 0.1, 10), 2);
+    }
+
+    @Test
+    public void testKeepsInstancesWithinBounds() {
+        ScalingDecider decider = new ScalingDecider(2, 5, 0.2, 0.8, 10, COOLDOWN, COOLDOWN, 1);
+        assertEquals(decider.decide(0, 0.5, 3), 3);
+        assertEquals(decider.decide(0, 10, 3), 5);
+        assertEquals(decider.decide(0, 0.0, 3), 2);
+        assertEquals(decider.decide(0, 0.5, 8), 5);
+    }
+
+    @Test
+    public void testLimitsStep() {
+        ScalingDecider decider = new ScalingDecider(1, 100, 0.2, 0.8, 2, COOLDOWN, COOLDOWN, 1);
+        assertEquals(decider.decide(0, 8, 4), 6);
+    }
+
+    @Test
+    public void testRequiresSustainedBreach() {
+        ScalingDecider decider = new ScalingDecider(1, 10, 0.2, 0.8, 10, COOLDOWN, COOLDOWN, 3);
+        assertEquals(decider.decide(0, 1.0, 2), 2);
+        assertEquals(decider.decide(1, 1.0, 2), 2);
+        assertEquals(decider.decide(2, 0.5, 2), 2);
+        assertEquals(decider.decide(3, 1.0, 2), 2);
+        assertEquals(decider.decide(4, 1.0, 2), 2);
+        assertEquals(decider.decide(5, 1.0, 2), 3);
+    }
+
+    @Test
+    public void testWaitsForCooldown() {
+        ScalingDecider decider = new ScalingDecider(1, 10, 0.2, 0.8, 10, COOLDOWN, 5 * COOLDOWN, 1);
+        assertEquals(decider.decide(0, 1.6, 2), 4);
+        decider.scaled(0);
+        assertEquals(decider.decide(COOLDOWN - 1, 1.6, 4), 4);
+        assertEquals(decider.decide(COOLDOWN, 1.6, 4), 8);
+        decider.scaled(COOLDOWN);
+        assertEquals(decider.decide(2 * COOLDOWN, 0.1, 8), 8);
+        assertEquals(decider.decide(6 * COOLDOWN, 0.1, 8), 2);
+    }
+}